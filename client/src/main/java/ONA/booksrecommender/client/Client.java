@@ -2,9 +2,17 @@ package ONA.booksrecommender.client;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 public class Client {
+    private static final String COMPRESSED_PREFIX = "\u0001"; // vedi ResponseCompressor lato server
 
     private String host = "localhost"; // oppure l'IP del server, tipo "192.168.1.100"
     private int porta = 1234;
@@ -34,6 +42,95 @@ public class Client {
         return null;
     }
 
+    /**
+     * Invia più richieste su una sola connessione in modalità pipeline: il server le esegue
+     * in parallelo e le risposte tornano etichettate con l'indice della richiesta.
+     * Restituisce le risposte nello stesso ordine delle richieste (null se mancanti).
+     * Se il server non supporta la pipeline, le richieste vengono inviate una alla volta.
+     */
+    public List<String> sendAll(List<String> requests) {
+        List<String> responses = new ArrayList<>(Collections.nCopies(requests.size(), null));
+        if (requests.isEmpty()) return responses;
+
+        try (Socket socket = new Socket(host, porta)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+
+            out.println("hello;pipeline,deflate");
+            String hello = in.readLine();
+            if (hello == null || !hello.startsWith("HELLO;") || !hello.contains("pipeline")) {
+                for (int i = 0; i < requests.size(); i++) {
+                    out.println(requests.get(i));
+                    responses.set(i, in.readLine());
+                }
+                return responses;
+            }
+
+            // le richieste sono brevi: stanno tutte nel buffer del socket prima di iniziare a leggere
+            for (int i = 0; i < requests.size(); i++) {
+                out.println(i + ";" + requests.get(i));
+            }
+            for (int received = 0; received < requests.size(); received++) {
+                String line = in.readLine();
+                if (line == null) break;
+                int sep = line.indexOf(';');
+                int index = Integer.parseInt(sep >= 0 ? line.substring(0, sep) : line);
+                responses.set(index, sep >= 0 ? decode(line.substring(sep + 1)) : "");
+            }
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+
+        return responses;
+    }
+
+    // Le risposte grandi arrivano compresse come SOH (U+0001) + Base64(deflate(risposta));
+    // nessuna risposta in chiaro inizia con SOH
+    private static String decode(String response) {
+        if (!response.startsWith(COMPRESSED_PREFIX)) return response;
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(Base64.getDecoder().decode(response.substring(COMPRESSED_PREFIX.length())));
+            ByteArrayOutputStream plain = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && inflater.needsInput()) break;
+                plain.write(chunk, 0, n);
+            }
+            return plain.toString(StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException | DataFormatException e) {
+            e.printStackTrace();
+            return response;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Invia più richieste con un solo comando "batch" (una sola andata e ritorno) e restituisce
+     * le risposte nello stesso ordine. Se il server non supporta il batch ripiega su sendAll.
+     */
+    public List<String> sendBatch(List<String> requests) {
+        List<String> responses = new ArrayList<>(Collections.nCopies(requests.size(), null));
+        if (requests.isEmpty()) return responses;
+
+        StringBuilder batch = new StringBuilder("batch");
+        for (String request : requests) {
+            batch.append(';').append(Base64.getEncoder().encodeToString(request.getBytes(StandardCharsets.UTF_8)));
+        }
+        String reply = send(batch.toString());
+        if (reply == null || !(reply.equals("BATCH") || reply.startsWith("BATCH;"))) {
+            return sendAll(requests);
+        }
+
+        String[] parts = reply.split(";", -1);
+        for (int i = 1; i < parts.length && i <= requests.size(); i++) {
+            responses.set(i - 1, new String(Base64.getDecoder().decode(parts[i]), StandardCharsets.UTF_8));
+        }
+        return responses;
+    }
+
     private static String getString(Socket socket, String richiesta) throws IOException {
         BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
         PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
@@ -15,9 +15,11 @@ public class AddRmBook {
         if (libsResponse == null || libsResponse.isEmpty()) return result;
 
         String[] libIds = libsResponse.split(",");
+        List<String> libBooksResponses = requestLibraries(client, libIds);
 
-        for (String libId : libIds) {
-            String libBooksResponse = client.send("get_user_library;id;" + libId);
+        for (int l = 0; l < libIds.length; l++) {
+            String libId = libIds[l];
+            String libBooksResponse = libBooksResponses.get(l);
             if (libBooksResponse == null || libBooksResponse.isEmpty()) continue;
 
             String[] parts = libBooksResponse.split(";");
@@ -53,9 +55,11 @@ public class AddRmBook {
         if (libsResponse == null || libsResponse.isEmpty()) return result;
 
         String[] libIds = libsResponse.split(",");
+        List<String> libBooksResponses = requestLibraries(client, libIds);
 
-        for (String libId : libIds) {
-            String libBooksResponse = client.send("get_user_library;id;" + libId);
+        for (int l = 0; l < libIds.length; l++) {
+            String libId = libIds[l];
+            String libBooksResponse = libBooksResponses.get(l);
             if (libBooksResponse == null || libBooksResponse.isEmpty()) continue;
 
             String[] parts = libBooksResponse.split(";");
@@ -82,6 +86,15 @@ public class AddRmBook {
         return result;
     }
 
+    // tutte le librerie in un solo comando batch invece di una connessione per libreria
+    private static List<String> requestLibraries(Client client, String[] libIds) {
+        List<String> requests = new ArrayList<>();
+        for (String libId : libIds) {
+            requests.add("get_user_library;id;" + libId);
+        }
+        return client.sendBatch(requests);
+    }
+
     public static class LibraryInfo {
         private final String id;
         private final String name;
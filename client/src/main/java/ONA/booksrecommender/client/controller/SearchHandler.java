@@ -19,6 +19,11 @@ public class SearchHandler {
 
     private Client client;
 
+    /**
+     * Una pagina di risultati e il token per chiedere la successiva (null se è l'ultima).
+     */
+    public record Page(List<Book> books, String nextCursor) {}
+
     public SearchHandler(Client client) {
         this.client = client;
     }
@@ -37,9 +42,9 @@ public class SearchHandler {
             if (!query.isEmpty()) {
                 syncQueryWithExistingView(root, query);
 
-                // La ricerca iniziale dalla barra ha sempre offset 0
-                List<Book> results = searchBooks(query, "title", 0);
-                root.showSearchResults(query, results);
+                // La ricerca iniziale dalla barra parte sempre dalla prima pagina
+                Page results = searchBooks(query, "title", null);
+                root.showSearchResults(query, results.books(), results.nextCursor());
             }
         });
 
@@ -58,8 +63,8 @@ public class SearchHandler {
                     ScrollPane scroll = (ScrollPane) node;
                     if (scroll.getContent() instanceof SearchView) {
                         ((SearchView) scroll.getContent()).setCurrentQuery(query);
-                        // RESETTA l'offset della vista quando si fa una nuova ricerca dalla barra
-                        ((SearchView) scroll.getContent()).resetOffset();
+                        // RESETTA la paginazione della vista quando si fa una nuova ricerca dalla barra
+                        ((SearchView) scroll.getContent()).resetCursor();
                     }
                 }
             }
@@ -67,21 +72,31 @@ public class SearchHandler {
     }
 
     /**
-     * Esegue la ricerca dei libri comunicando con il server con supporto all'OFFSET.
+     * Esegue la ricerca dei libri comunicando con il server, una pagina alla volta.
+     *
+     * @param cursor il token restituito con la pagina precedente, null per la prima pagina
      */
-    public List<Book> searchBooks(String query, String type, int offset) {
+    public Page searchBooks(String query, String type, String cursor) {
         List<Book> results = new ArrayList<>();
-        if (query == null || query.isBlank()) return results;
+        String nextCursor = null;
+        if (query == null || query.isBlank()) return new Page(results, null);
 
         try {
-            // Invio comando: get_book;tipo;query;offset
-            // Esempio: get_book;author;Manzoni;20
-            String command = "get_book;" + type + ";" + query + ";" + offset;
+            // Invio comando: get_book;tipo;query[;token]
+            // Esempio: get_book;author;Manzoni;kMTk5OToxMjM
+            String command = "get_book;" + type + ";" + query + (cursor != null ? ";" + cursor : "");
 
             String risposta = this.client.send(command);
 
             if (risposta == null || risposta.isBlank() || risposta.startsWith("ERROR") || risposta.equals("NOT_FOUND")) {
-                return results;
+                return new Page(results, null);
+            }
+
+            // l'ultimo record "NEXT;token" c'è solo se esiste un'altra pagina
+            int next = risposta.startsWith("NEXT;") ? 0 : risposta.lastIndexOf("|NEXT;") + 1;
+            if (next >= 0 && risposta.startsWith("NEXT;", next)) {
+                nextCursor = risposta.substring(next + "NEXT;".length()).replace("|", "").trim();
+                risposta = risposta.substring(0, next);
             }
 
             String clean = risposta.endsWith("|") ? risposta.substring(0, risposta.length() - 1) : risposta;
@@ -118,6 +133,6 @@ public class SearchHandler {
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return results;
+        return new Page(results, nextCursor);
     }
 }
\ No newline at end of file
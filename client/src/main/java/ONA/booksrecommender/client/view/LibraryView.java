@@ -14,6 +14,10 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.Priority;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * LibraryView estende StackPane per permettere all'overlay dei dettagli
  * di apparire SOPRA la lista dei libri.
@@ -61,14 +65,22 @@ public class LibraryView extends StackPane {
 
         String[] libri = risposta.trim().split(";")[3].split(",");
 
+        // Tutti i libri vengono caricati con una sola richiesta get_book;list (record separati da "|")
+        List<String> ids = new ArrayList<>();
+        for (String s : libri) {
+            if (s == null || s.isBlank()) continue;
+            ids.add(s.trim());
+        }
+        String elenco = ids.isEmpty() ? null : client.send("get_book;list;" + String.join(",", ids));
+        List<String> risposte = elenco == null ? new ArrayList<>() : Arrays.asList(elenco.split("\\|"));
+
         int col = 0;
         int row = 0;
 
-        for (String s : libri) {
-            if (s == null || s.isBlank()) continue;
+        for (String bookInfo : risposte) {
+            if (bookInfo == null) continue;
 
-            String bookInfo = client.send("get_book;id;" + s).trim();
-            String[] parts = bookInfo.split(";");
+            String[] parts = bookInfo.trim().split(";");
             if (parts.length < 7) continue;
 
             String coverUrl = parts[6];
@@ -100,8 +100,8 @@ public class RootView extends HBox {
         mainContentContainer.getChildren().setAll(view);
     }
 
-    public void showSearchResults(String query, List<Book> results) {
-        SearchView view = new SearchView(this, query, results);
+    public void showSearchResults(String query, List<Book> results, String nextCursor) {
+        SearchView view = new SearchView(this, query, results, nextCursor);
         view.setMaxWidth(Double.MAX_VALUE);
         VBox.setVgrow(view, Priority.ALWAYS);
 
@@ -24,14 +24,14 @@ public class SearchView extends VBox {
     private String currentQuery;
     private SearchHandler searchHandler;
 
-    private int currentOffset = 0;
-    private final int LIMIT = 20;
+    private String nextCursor; // token della pagina successiva, null se non ce ne sono altre
     private boolean isLoading = false;
     private String currentTab = "title";
 
-    public SearchView(RootView root, String query, List<Book> results) {
+    public SearchView(RootView root, String query, List<Book> results, String nextCursor) {
         this.root = root;
         this.currentQuery = query;
+        this.nextCursor = nextCursor;
         this.currentResults = (results != null) ? new ArrayList<>(results) : new ArrayList<>();
         this.searchHandler = new SearchHandler(root.getClient());
 
@@ -71,7 +71,7 @@ public class SearchView extends VBox {
         tabTitolo.setOnMouseClicked(e -> {
             if(currentTab.equals("title")) return;
             currentTab = "title";
-            resetOffset();
+            resetCursor();
             tabTitolo.getStyleClass().add("tab-label-active");
             tabAutore.getStyleClass().remove("tab-label-active");
             updateResults();
@@ -80,7 +80,7 @@ public class SearchView extends VBox {
         tabAutore.setOnMouseClicked(e -> {
             if(currentTab.equals("author")) return;
             currentTab = "author";
-            resetOffset();
+            resetCursor();
             tabAutore.getStyleClass().add("tab-label-active");
             tabTitolo.getStyleClass().remove("tab-label-active");
             updateResults();
@@ -107,7 +107,7 @@ public class SearchView extends VBox {
         VBox.setVgrow(scroll, Priority.ALWAYS);
 
         scroll.vvalueProperty().addListener((obs, oldVal, newVal) -> {
-            if (newVal.doubleValue() >= 0.95 && !isLoading && currentResults.size() >= LIMIT) {
+            if (newVal.doubleValue() >= 0.95 && !isLoading && nextCursor != null) {
                 loadMoreResults();
             }
         });
@@ -118,24 +118,28 @@ public class SearchView extends VBox {
     }
 
     private void updateResults() {
-        this.currentResults = searchHandler.searchBooks(currentQuery, currentTab, 0);
+        SearchHandler.Page page = searchHandler.searchBooks(currentQuery, currentTab, null);
+        this.currentResults = page.books();
+        this.nextCursor = page.nextCursor();
         renderView();
     }
 
     private void loadMoreResults() {
         isLoading = true;
-        currentOffset += LIMIT;
+        String cursor = nextCursor;
+        String tab = currentTab;
         new Thread(() -> {
-            List<Book> nextBooks = searchHandler.searchBooks(currentQuery, currentTab, currentOffset);
-            if (nextBooks != null && !nextBooks.isEmpty()) {
-                Platform.runLater(() -> {
-                    this.currentResults.addAll(nextBooks);
-                    renderView();
-                    isLoading = false;
-                });
-            } else {
+            SearchHandler.Page page = searchHandler.searchBooks(currentQuery, tab, cursor);
+            Platform.runLater(() -> {
+                if (tab.equals(currentTab) && cursor.equals(nextCursor)) { // la ricerca non è cambiata nel frattempo
+                    this.nextCursor = page.nextCursor();
+                    if (!page.books().isEmpty()) {
+                        this.currentResults.addAll(page.books());
+                        renderView();
+                    }
+                }
                 isLoading = false;
-            }
+            });
         }).start();
     }
 
@@ -207,6 +211,6 @@ public class SearchView extends VBox {
         return row;
     }
 
-    public void resetOffset() { this.currentOffset = 0; }
-    public void setCurrentQuery(String query) { this.currentQuery = query; resetOffset(); }
+    public void resetCursor() { this.nextCursor = null; }
+    public void setCurrentQuery(String query) { this.currentQuery = query; resetCursor(); }
 }
\ No newline at end of file
@@ -14,6 +14,8 @@ public class Library {
     private String userId;
     //private List<String> bookIds; // TODO: cambiare da lista di String a lista di Book
     private List<Book> books;
+    private List<Integer> bookIds; // solo per le librerie caricate senza i libri
+
 
     /**
      * Costruisce una nuova biblioteca con il nome, l'ID dell'utente e un elenco di ID di libri.
@@ -30,6 +32,21 @@ public class Library {
         this.books = books;
     }
 
+    /**
+     * Costruisce una biblioteca che conosce solo gli ID dei propri libri, senza caricarli.
+     *
+     * @param id l'id della libreria
+     * @param name il nome della libreria.
+     * @param userId l'ID dell'utente associato alla libreria.
+     * @param bookIds gli ID dei libri contenuti nella libreria.
+     * @return la biblioteca, con getBooks() che restituisce null.
+     */
+    public static Library withBookIds(int id, String name, String userId, List<Integer> bookIds) {
+        Library library = new Library(id, name, userId, null);
+        library.bookIds = bookIds;
+        return library;
+    }
+
     // Getters
     /**
      * Restituisce l'id della libreria.
@@ -58,6 +75,9 @@ public class Library {
      * @return una lista degli ID dei libri.
      */
     public List<Integer> getBookIds() {
+        if (books == null) {
+            return new ArrayList<>(this.bookIds);
+        }
         List<Integer> bookIds = new ArrayList<>();
         for (Book book : books) {
             bookIds.add(book.getId());
@@ -65,6 +85,13 @@ public class Library {
         return bookIds;
     }
 
+    /**
+     * Restituisce i libri contenuti nella libreria.
+     *
+     * @return la lista dei libri, oppure null se la libreria è stata caricata con i soli ID.
+     */
+    public List<Book> getBooks() { return books; }
+
     /**
      * Aggiunge un ID di libro alla libreria, se non è già presente.
      *
@@ -76,7 +103,11 @@ public class Library {
         }
     }*/
     public void addBook(Book book) {
-        if (!books.contains(book)) {
+        if (books == null) {
+            if (!bookIds.contains(book.getId())) {
+                bookIds.add(book.getId());
+            }
+        } else if (!books.contains(book)) {
             books.add(book);
         }
     }
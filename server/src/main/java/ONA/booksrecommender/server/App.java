@@ -15,6 +15,7 @@ public class App {
             System.out.println("1. Avvia Server");
             System.out.println("2. Ferma Server");
             System.out.println("3. Esci");
+            System.out.println("4. Statistiche");
             System.out.print("Scelta: ");
 
             String scelta = scanner.nextLine();
@@ -54,6 +55,9 @@ public class App {
                     }
                     exit = true;
                     break;
+                case "4":
+                    System.out.println(server.getMetrics().report());
+                    break;
                 default:
                     System.out.println("Scelta non valida.");
             }
@@ -0,0 +1,90 @@
+package ONA.booksrecommender.server;
+
+import ONA.booksrecommender.objects.Book;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+
+/**
+ * Record dei libri già codificati nel protocollo testuale (autori uniti, descrizione in Base64,
+ * campi separati da ";"), nelle due varianti con e senza descrizione. I libri più richiesti
+ * vengono codificati una volta sola e le richieste per ID (get_book;id, get_book;list) li
+ * trovano senza leggere il database.
+ * <p>
+ * Cache a indirizzamento diretto, senza lock: ogni variante di un libro ha una posizione
+ * calcolata dall'ID e un libro nuovo sostituisce quello che la occupava. Il server non modifica
+ * mai il catalogo (viene caricato fuori dal server), quindi non c'è nulla da invalidare:
+ * un record scade dopo ttlMillis e viene ricodificato dalla lettura successiva.
+ */
+public class BookRecordCache {
+
+    private record Entry(int bookId, boolean withDescription, String encoded, long expiresAtMillis) {}
+
+    private final AtomicReferenceArray<Entry> entries;
+    private final int mask;
+    private final long ttlMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity record conservati, arrotondati alla potenza di 2 successiva; 0 disattiva la cache
+     * @param ttlMillis durata di un record prima di essere riletto dal database
+     */
+    public BookRecordCache(int capacity, long ttlMillis) {
+        int size = capacity <= 0 || ttlMillis <= 0 ? 0 : Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.entries = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public boolean isEnabled() {
+        return entries.length() > 0;
+    }
+
+    /**
+     * Record del libro se è in cache e non è scaduto, altrimenti null (il libro va letto dal database).
+     */
+    public String get(int bookId, boolean withDescription) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Entry entry = entries.get(slot(bookId, withDescription));
+        if (entry != null && entry.bookId() == bookId && entry.withDescription() == withDescription
+                && System.currentTimeMillis() < entry.expiresAtMillis()) {
+            hits.increment();
+            return entry.encoded();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Record del libro appena letto dal database: riusa quello in cache, altrimenti lo codifica
+     * con encoder e lo conserva.
+     */
+    public String get(Book book, boolean withDescription, BiFunction<Book, Boolean, String> encoder) {
+        String cached = get(book.getId(), withDescription);
+        if (cached != null) {
+            return cached;
+        }
+        String encoded = encoder.apply(book, withDescription);
+        if (isEnabled()) {
+            entries.set(slot(book.getId(), withDescription),
+                    new Entry(book.getId(), withDescription, encoded, System.currentTimeMillis() + ttlMillis));
+        }
+        return encoded;
+    }
+
+    public long getHits() { return hits.sum(); }
+
+    public long getMisses() { return misses.sum(); }
+
+    private int slot(int bookId, boolean withDescription) {
+        int h = bookId * 2 + (withDescription ? 1 : 0);
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return h & mask;
+    }
+}
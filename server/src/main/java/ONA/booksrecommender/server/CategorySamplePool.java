@@ -0,0 +1,226 @@
+package ONA.booksrecommender.server;
+
+import ONA.booksrecommender.managers.ThreadManager;
+import ONA.booksrecommender.server.database.dao.BookDAO;
+import ONA.booksrecommender.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Campioni casuali di ID di libri per ogni categoria richiesta dalla home ("get_book;top;genere"),
+ * così le righe per genere si estraggono in memoria in O(limit) invece di ordinare a caso
+ * tutta la categoria sul database a ogni richiesta.
+ * <p>
+ * Ogni categoria ha un campione di al più capacity ID, costruito in background scorrendo la
+ * categoria a blocchi in ordine di ID (nessun ordinamento) con il reservoir sampling: ogni libro
+ * della categoria ha la stessa probabilità di finire nel campione. Il reservoir resta in memoria
+ * e ogni refreshMillis riceve solo i libri con ID successivo all'ultimo letto, quindi un
+ * aggiornamento costa quanto i libri aggiunti e non una nuova scansione della categoria; i libri
+ * cancellati nel frattempo vengono saltati da BookDAO.getBooks.
+ * <p>
+ * Vengono campionate solo le categorie presenti nel catalogo (riletto ogni refreshMillis), così
+ * un client non può riempire il pool con nomi inventati. Finché il primo campione di una
+ * categoria non è pronto sample() restituisce null e la richiesta va al database come prima.
+ */
+public class CategorySamplePool implements AutoCloseable {
+    private static final int MAX_CATEGORIES = 64; // le categorie oltre questo numero vanno sempre al database
+    private static final int SCAN_CHUNK = 1000;   // ID letti per ogni query di scansione
+    private static final long TICK_MILLIS = 1000;
+
+    private static final class Pool {
+        final String category;
+        volatile int[] sample;   // copia pubblicata del reservoir, null finché la prima scansione non è finita
+        volatile long lastUsedMillis;
+        // reservoir e posizione della scansione, usati solo dal thread di aggiornamento
+        int[] reservoir;
+        int filled;
+        long seen;
+        int lastId;
+        boolean changed;         // il reservoir è cambiato dall'ultima pubblicazione
+        long nextScanMillis;
+
+        Pool(String category) {
+            this.category = category;
+        }
+    }
+
+    private final Logger logger;
+    private final BookDAO bookDAO;
+    private final int capacity;
+    private final long refreshMillis;
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private volatile Set<String> knownCategories = Set.of(); // categorie del catalogo, in minuscolo
+    private long nextCatalogMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * @param capacity ID tenuti per categoria; 0 disattiva i campioni
+     * @param refreshMillis intervallo tra una ricostruzione del campione e la successiva
+     */
+    public CategorySamplePool(Logger logger, BookDAO bookDAO, int capacity, long refreshMillis) {
+        this.logger = logger;
+        this.bookDAO = bookDAO;
+        this.capacity = Math.max(0, capacity);
+        this.refreshMillis = Math.max(TICK_MILLIS, refreshMillis);
+        if (this.capacity > 0) {
+            this.refresher = Executors.newSingleThreadScheduledExecutor(new ThreadManager("CategorySamplePool", true));
+            refresher.scheduleWithFixedDelay(this::refresh, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            this.refresher = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Fino a limit ID distinti estratti a caso dal campione della categoria, in ordine casuale,
+     * oppure null se il campione non è ancora pronto (una categoria del catalogo viene registrata
+     * e il suo campione costruito in background) o se la categoria non è nel catalogo.
+     */
+    public List<Integer> sample(String category, int limit) {
+        if (!isEnabled()) {
+            return null;
+        }
+        String key = category.trim().toLowerCase(Locale.ROOT);
+        Pool pool = pools.get(key);
+        if (pool == null && pools.size() < MAX_CATEGORIES && knownCategories.contains(key)) {
+            pool = pools.computeIfAbsent(key, Pool::new);
+        }
+        int[] ids = pool != null ? pool.sample : null;
+        if (ids == null) {
+            misses.increment();
+            return null;
+        }
+        pool.lastUsedMillis = System.currentTimeMillis();
+        hits.increment();
+        return pick(ids, Math.max(0, Math.min(limit, ids.length)));
+    }
+
+    // algoritmo di Floyd: k indici distinti in O(k), poi mescolati perché l'ordine sia casuale
+    private static List<Integer> pick(int[] ids, int k) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Set<Integer> chosen = new HashSet<>(k * 2);
+        List<Integer> picked = new ArrayList<>(k);
+        for (int j = ids.length - k; j < ids.length; j++) {
+            int index = random.nextInt(j + 1);
+            if (!chosen.add(index)) {
+                index = j;
+                chosen.add(j);
+            }
+            picked.add(ids[index]);
+        }
+        Collections.shuffle(picked, random);
+        return picked;
+    }
+
+    // un passo di aggiornamento: le categorie nuove vengono scansionate per intero, le altre
+    // ricevono un blocco di libri aggiunti alla volta
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        if (now >= nextCatalogMillis) {
+            loadCategories();
+            nextCatalogMillis = now + refreshMillis;
+        }
+        for (Pool pool : pools.values()) {
+            try {
+                if (pool.sample != null && now - pool.lastUsedMillis > 6 * refreshMillis) {
+                    pools.remove(pool.category, pool); // categoria non più richiesta
+                    continue;
+                }
+                if (pool.sample == null) {
+                    while (pool.sample == null && scanChunk(pool)) {
+                        // primo campione: prima è pronto, prima le richieste smettono di andare al database
+                    }
+                } else if (now >= pool.nextScanMillis) {
+                    scanChunk(pool);
+                }
+            } catch (RuntimeException e) {
+                logger.log("Category sample refresh error (" + pool.category + "): " + e.getMessage());
+            }
+        }
+    }
+
+    private void loadCategories() {
+        try {
+            Set<String> categories = new HashSet<>();
+            for (String category : bookDAO.getCategories()) {
+                categories.add(category.trim().toLowerCase(Locale.ROOT));
+            }
+            if (!categories.isEmpty()) { // lista vuota = query fallita: resta quella precedente
+                knownCategories = Set.copyOf(categories);
+            }
+        } catch (RuntimeException e) {
+            logger.log("Category list refresh error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Legge il blocco di ID successivo all'ultimo visto e lo passa al reservoir (algoritmo R);
+     * arrivato in fondo alla categoria pubblica una copia del reservoir se è cambiato.
+     * Restituisce false se la query è fallita.
+     */
+    private boolean scanChunk(Pool pool) {
+        if (pool.reservoir == null) {
+            pool.reservoir = new int[capacity];
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int read = bookDAO.forEachBookIdInCategory(pool.category, pool.lastId, SCAN_CHUNK, id -> {
+            pool.lastId = id;
+            pool.seen++;
+            if (pool.filled < capacity) {
+                pool.reservoir[pool.filled++] = id;
+                pool.changed = true;
+            } else {
+                long slot = random.nextLong(pool.seen);
+                if (slot < capacity) {
+                    pool.reservoir[(int) slot] = id;
+                    pool.changed = true;
+                }
+            }
+        });
+        if (read < 0) {
+            return false;
+        }
+        if (read < SCAN_CHUNK) { // nessun altro libro nella categoria
+            if (pool.changed || pool.sample == null) {
+                pool.sample = Arrays.copyOf(pool.reservoir, pool.filled);
+                pool.changed = false;
+            }
+            pool.nextScanMillis = System.currentTimeMillis() + refreshMillis;
+            if (pool.lastUsedMillis == 0) {
+                pool.lastUsedMillis = System.currentTimeMillis();
+            }
+        }
+        return true;
+    }
+
+    public long getHits() { return hits.sum(); }
+
+    public long getMisses() { return misses.sum(); }
+
+    public int getCategories() { return pools.size(); }
+
+    @Override
+    public void close() {
+        if (refresher != null) {
+            refresher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ONA.booksrecommender.server;
+
+/**
+ * Dati di una connessione visti dal RequestDispatcher: indirizzo remoto e, dopo un
+ * login riuscito, username. Il rate limiter conta le richieste per utente quando è
+ * noto, altrimenti per indirizzo.
+ */
+public class ClientContext {
+    private final String address;
+    private volatile String username;
+
+    public ClientContext(String address) {
+        this.address = address;
+    }
+
+    public String getAddress() { return address; }
+
+    public String getUsername() { return username; }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public String rateLimitKey() {
+        String user = username;
+        return user != null ? "user:" + user : "ip:" + address;
+    }
+}
@@ -1,17 +1,74 @@
 package ONA.booksrecommender.server;
 
-import java.net.Socket;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import ONA.booksrecommender.utils.Logger;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Chiude le connessioni inattive da più di timeoutMillis.
+ * Le scadenze sono tenute in una "timer wheel" (array circolare di slot, uno per tick):
+ * ogni tick esamina solo le connessioni dello slot corrente, quindi il costo non dipende
+ * dal numero totale di socket aperti. Registrare un messaggio ricevuto costa una sola
+ * scrittura (Entry.touch); la scadenza viene ricalcolata solo quando lo slot viene visitato.
+ */
 public class ConnectionsCleaner implements Runnable {
-    private final Map<Socket, Long> activeConnections; // socket -> ultimo messaggio ricevuto
+    private static final int WHEEL_SIZE = 512;
+
+    private final Logger logger;
+    private final ServerMetrics metrics;
     private final long timeoutMillis;
+    private final long tickMillis;
+    private final long startMillis = System.currentTimeMillis();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<Entry>[] wheel = new ArrayDeque[WHEEL_SIZE];
+    private final Queue<Entry> incoming = new ConcurrentLinkedQueue<>();
+    private long currentTick;
     private volatile boolean running = true;
 
-    public ConnectionsCleaner(Map<Socket, Long> activeConnections, long timeoutMillis) {
-        this.activeConnections = activeConnections;
+    public ConnectionsCleaner(Logger logger, ServerMetrics metrics, long timeoutMillis, long tickMillis) {
+        this.logger = logger;
+        this.metrics = metrics;
         this.timeoutMillis = timeoutMillis;
+        this.tickMillis = tickMillis;
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Connessione monitorata: il thread che legge chiama touch() a ogni riga ricevuta
+     * e cancel() quando chiude la connessione per conto suo.
+     */
+    public static final class Entry {
+        private final Closeable connection;
+        private final String name;
+        private volatile long lastActivity = System.currentTimeMillis();
+        private volatile boolean cancelled;
+        private long deadlineTick; // usato solo dal thread del cleaner
+
+        private Entry(Closeable connection, String name) {
+            this.connection = connection;
+            this.name = name;
+        }
+
+        public void touch() {
+            lastActivity = System.currentTimeMillis();
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    public Entry register(Closeable connection, String name) {
+        Entry entry = new Entry(connection, name);
+        incoming.add(entry);
+        return entry;
     }
 
     public void stop() {
@@ -21,23 +78,61 @@ public class ConnectionsCleaner implements Runnable {
     @Override
     public void run() {
         while (running) {
-            long now = System.currentTimeMillis();
-            for (Map.Entry<Socket, Long> entry : activeConnections.entrySet()) {
-                if (now - entry.getValue() > timeoutMillis) {
-                    try {
-                        System.out.println("Chiudo connessione inattiva: " + entry.getKey().getInetAddress());
-                        entry.getKey().close();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    activeConnections.remove(entry.getKey());
-                }
-            }
             try {
-                Thread.sleep(5000); // ogni 5 secondi controlla
+                Thread.sleep(tickMillis);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                Entry entry;
+                while ((entry = incoming.poll()) != null) {
+                    schedule(entry, entry.lastActivity + timeoutMillis);
+                }
+
+                long now = System.currentTimeMillis();
+                long targetTick = (now - startMillis) / tickMillis;
+                while (currentTick < targetTick) {
+                    currentTick++;
+                    expireSlot(now);
+                }
+            } catch (RuntimeException e) {
+                logger.log("Connections cleaner error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void schedule(Entry entry, long deadlineMillis) {
+        long tick = Math.max(currentTick + 1, (deadlineMillis - startMillis + tickMillis - 1) / tickMillis);
+        entry.deadlineTick = tick;
+        wheel[(int) (tick % WHEEL_SIZE)].add(entry);
+    }
+
+    private void expireSlot(long now) {
+        ArrayDeque<Entry> slot = wheel[(int) (currentTick % WHEEL_SIZE)];
+        int size = slot.size();
+        for (int i = 0; i < size; i++) {
+            Entry entry = slot.poll();
+            if (entry.cancelled) {
+                continue;
+            }
+            if (entry.deadlineTick > currentTick) {
+                slot.add(entry); // scade in un giro successivo della ruota
+                continue;
+            }
+            long idle = now - entry.lastActivity;
+            if (idle < timeoutMillis) {
+                schedule(entry, entry.lastActivity + timeoutMillis); // attività recente: sposta la scadenza
+                continue;
+            }
+            try {
+                logger.log("Chiudo connessione inattiva: " + entry.name);
+                entry.connection.close();
+            } catch (IOException | RuntimeException e) {
+                logger.log("Error " + e.getMessage()); // una chiusura fallita non deve fermare il thread della ruota
             }
+            metrics.connectionReaped();
         }
     }
 }
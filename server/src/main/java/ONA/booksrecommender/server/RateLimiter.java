@@ -0,0 +1,54 @@
+package ONA.booksrecommender.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket per client, senza lock: ogni bucket è un solo AtomicLong aggiornato con CAS
+ * (algoritmo GCRA: invece dei gettoni rimasti si memorizza l'istante in cui il bucket
+ * tornerebbe pieno) e i bucket stanno in una ConcurrentHashMap, già suddivisa in segmenti.
+ * Ogni comando consuma un numero di gettoni pari al suo costo (vedi ServerConfig.getRateLimitCost).
+ */
+public class RateLimiter {
+    private static final int CLEANUP_EVERY = 4096; // potenza di 2
+
+    private final long nanosPerToken;
+    private final long burstNanos;
+    private final int burst;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong calls = new AtomicLong();
+
+    public RateLimiter(int tokensPerSecond, int burst) {
+        this.burst = Math.max(1, burst);
+        this.nanosPerToken = 1_000_000_000L / Math.max(1, tokensPerSecond);
+        this.burstNanos = this.burst * nanosPerToken;
+    }
+
+    /**
+     * Consuma cost gettoni dal bucket di key. Restituisce 0 se la richiesta è ammessa,
+     * altrimenti i millisecondi dopo cui ci saranno gettoni sufficienti.
+     */
+    public long tryAcquire(String key, int cost) {
+        long now = System.nanoTime();
+        if ((calls.incrementAndGet() & (CLEANUP_EVERY - 1)) == 0) {
+            buckets.values().removeIf(full -> full.get() - now <= 0); // bucket pieni: equivalenti a uno nuovo
+        }
+        AtomicLong bucket = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        long increment = Math.min(cost, burst) * nanosPerToken; // un comando più caro del burst resta comunque eseguibile
+        while (true) {
+            long full = bucket.get();
+            long next = Math.max(full, now) + increment;
+            long excess = next - now - burstNanos;
+            if (excess > 0) {
+                return Math.max(1, excess / 1_000_000L);
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return 0;
+            }
+        }
+    }
+
+    public int getTrackedClients() {
+        return buckets.size();
+    }
+}
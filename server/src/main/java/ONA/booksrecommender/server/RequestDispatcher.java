@@ -0,0 +1,287 @@
+package ONA.booksrecommender.server;
+
+import ONA.booksrecommender.managers.ThreadManager;
+import ONA.booksrecommender.server.database.Deadline;
+import ONA.booksrecommender.server.errors.DeadlineExceededException;
+import ONA.booksrecommender.server.protocol.Batch;
+import ONA.booksrecommender.server.protocol.RequestTokenizer;
+import ONA.booksrecommender.server.protocol.ResponseWriter;
+import ONA.booksrecommender.server.protocol.TextResponseWriter;
+import ONA.booksrecommender.utils.Logger;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Pool limitato di worker tra i lettori dei socket e ServerFacade.handleRequest.
+ * Le richieste in eccesso non si accumulano: se la coda è piena il client riceve
+ * subito "BUSY;retry_after_ms" e può riprovare, così il database non viene sommerso
+ * durante i picchi e la latenza peggiora in modo prevedibile.
+ */
+public class RequestDispatcher {
+    private static final String SEPARATOR = ";";
+    private static final long MAX_RETRY_AFTER_MS = 5000;
+    private static final String SHUTTING_DOWN = "ERROR" + SEPARATOR + "shutting_down";
+    private static final String DEADLINE_EXCEEDED = "ERROR" + SEPARATOR + "deadline_exceeded";
+    private static final String RATE_LIMITED = "ERROR" + SEPARATOR + "rate_limited";
+    private static final String MISSING_PARAMS = "ERROR" + SEPARATOR + "missing_params";
+    private static final String CLIENT_DEADLINE = "@";
+    private static final long MAX_DEADLINE_MS = 60_000;
+
+    private final ServerConfig config;
+    private final Logger logger;
+    private final ServerFacade serverFacade;
+    private final ServerMetrics metrics;
+    private final ThreadPoolExecutor workers;
+    private final RateLimiter rateLimiter; // null se config.getRateLimit() == 0
+    private static final ThreadLocal<TextResponseWriter> WORKER_WRITER = ThreadLocal.withInitial(TextResponseWriter::new);
+    private final int retryAfterMillis;
+
+    // media mobile esponenziale del tempo di servizio, usata per stimare retry_after_ms
+    private volatile double avgServiceMillis;
+    private volatile boolean draining;
+
+    public RequestDispatcher(ServerConfig config, Logger logger, ServerFacade serverFacade, ServerMetrics metrics) {
+        this.config = config;
+        this.logger = logger;
+        this.serverFacade = serverFacade;
+        this.metrics = metrics;
+        this.retryAfterMillis = config.getBusyRetryMillis();
+
+        int threads = Math.max(1, config.getWorkerThreads());
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, config.getRequestQueueCapacity())),
+                new ThreadManager("RequestWorker", true),
+                new ThreadPoolExecutor.AbortPolicy());
+        metrics.registerGauge("Richieste in coda", this::getQueueDepth);
+        metrics.registerGauge("Richieste in esecuzione", this::getActiveCount);
+
+        if (config.getRateLimit() > 0) {
+            this.rateLimiter = new RateLimiter(config.getRateLimit(), config.getRateLimitBurst());
+            metrics.registerGauge("Client nel rate limiter", rateLimiter::getTrackedClients);
+        } else {
+            this.rateLimiter = null;
+        }
+    }
+
+    /**
+     * Esegue la richiesta testuale sul pool e attende la risposta (trasporto bloccante).
+     */
+    public String execute(String request, ClientContext client) {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        submit(request, client, response::complete);
+        return response.join();
+    }
+
+    /**
+     * Esegue la richiesta già divisa in campi sul pool e attende che la risposta sia scritta su out.
+     */
+    public void execute(String[] parts, ResponseWriter out, ClientContext client) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        submit(parts, out, client, () -> done.complete(null));
+        done.join();
+    }
+
+    /**
+     * Accoda la richiesta; la risposta viene consegnata al callback, che in caso di
+     * coda piena è invocato subito dal thread chiamante con la risposta BUSY.
+     * La risposta viene scritta nel buffer riutilizzabile del worker (vedi TextResponseWriter.reset).
+     */
+    public void submit(String request, ClientContext client, Consumer<String> callback) {
+        enqueue(RequestTokenizer.split(request), client, (parts, deadline) -> {
+            TextResponseWriter out = WORKER_WRITER.get();
+            out.reset();
+            process(parts, out, deadline, client);
+            callback.accept(out.toString());
+        }, callback);
+    }
+
+    /**
+     * Accoda la richiesta già divisa in campi; done viene eseguito quando la risposta è
+     * stata scritta su out (subito, dal thread chiamante, se la coda è piena).
+     */
+    public void submit(String[] parts, ResponseWriter out, ClientContext client, Runnable done) {
+        enqueue(parts, client, (request, deadline) -> {
+            process(request, out, deadline, client);
+            done.run();
+        }, reply -> {
+            out.reply(reply);
+            done.run();
+        });
+    }
+
+    private interface Task {
+        void run(String[] parts, Deadline deadline);
+    }
+
+    /**
+     * Richiesta in coda: se drain() la scarta senza eseguirla, reject riceve la risposta
+     * di arresto, così chi attende la risposta (execute, gateway HTTP) non resta bloccato.
+     */
+    private record Queued(Runnable work, Consumer<String> reject) implements Runnable {
+        @Override
+        public void run() {
+            work.run();
+        }
+    }
+
+    // scadenza, rate limit e accodamento comuni a tutte le varianti; se la richiesta non viene
+    // accodata reject riceve subito, dal thread chiamante, la risposta di rifiuto (rate limit, BUSY, arresto)
+    private void enqueue(String[] parts, ClientContext client, Task task, Consumer<String> reject) {
+        if (parts.length == 0) { // riga composta solo da separatori: nessun comando
+            reject.accept(MISSING_PARAMS);
+            return;
+        }
+        Deadline deadline = deadlineFor(parts);
+        String[] request = withoutClientDeadline(parts);
+        String limited = rateLimit(request, client);
+        if (limited != null) {
+            reject.accept(limited);
+            return;
+        }
+        try {
+            workers.execute(new Queued(() -> task.run(request, deadline), reject));
+        } catch (RejectedExecutionException e) {
+            reject.accept(rejected());
+        }
+    }
+
+    private void process(String[] parts, ResponseWriter out, Deadline deadline, ClientContext client) {
+        if (deadline.isExpired()) { // scaduta mentre era in coda: non la esegue nemmeno
+            timedOut(out);
+            return;
+        }
+        logger.log("Received: " + String.join(SEPARATOR, parts)); // TODO: sistemare il logger gestendo i tipi di log
+        long start = System.nanoTime();
+        long allocated = metrics.currentThreadAllocatedBytes();
+        Deadline.set(deadline);
+        try {
+            serverFacade.handleRequest(parts, out, client);
+            // query annullata da setQueryTimeout (i DAO la riportano come risultato vuoto) o risposta arrivata tardi:
+            // solo per le letture, una scrittura già eseguita non va fatta ripetere al client
+            if (deadline.isExpired() && ServerFacade.isReadOnly(parts)) {
+                timedOut(out);
+            }
+        } catch (DeadlineExceededException e) {
+            timedOut(out);
+        } catch (Exception e) {
+            logger.log("Error handling request: " + e.getMessage());
+            out.reply("ERROR" + SEPARATOR + e.getMessage());
+        } finally {
+            Deadline.clear();
+            double elapsed = (System.nanoTime() - start) / 1_000_000.0;
+            avgServiceMillis = avgServiceMillis == 0 ? elapsed : avgServiceMillis * 0.9 + elapsed * 0.1;
+            metrics.requestCompleted();
+            if (allocated >= 0) {
+                metrics.requestAllocated(metrics.currentThreadAllocatedBytes() - allocated);
+            }
+        }
+    }
+
+    // null se la richiesta è ammessa, altrimenti "ERROR;rate_limited;retry_after_ms"
+    private String rateLimit(String[] parts, ClientContext client) {
+        if (rateLimiter == null || client == null) {
+            return null;
+        }
+        int cost = cost(parts);
+        long retryAfter = rateLimiter.tryAcquire(client.rateLimitKey(), cost);
+        if (retryAfter == 0) {
+            return null;
+        }
+        metrics.requestRateLimited();
+        return RATE_LIMITED + SEPARATOR + retryAfter;
+    }
+
+    // un batch costa quanto le sue sotto-richieste; una sotto-richiesta vuota costa 1 (verrà rifiutata da ServerFacade)
+    private int cost(String[] parts) {
+        if (parts.length == 0) {
+            return 1;
+        }
+        if (!Batch.isBatch(parts)) {
+            return config.getRateLimitCost(parts[0], parts.length > 1 ? parts[1] : null);
+        }
+        int cost = 0;
+        try {
+            for (String request : Batch.decode(parts)) {
+                cost += cost(RequestTokenizer.split(request));
+            }
+        } catch (IllegalArgumentException e) {
+            // batch malformato: verrà rifiutato da ServerFacade
+        }
+        return Math.max(1, cost);
+    }
+
+    private void timedOut(ResponseWriter out) {
+        metrics.requestTimedOut();
+        out.reply(DEADLINE_EXCEEDED);
+    }
+
+    // "@millisecondi;comando;..." sceglie la scadenza lato client, altrimenti vale quella configurata per il comando
+    private Deadline deadlineFor(String[] parts) {
+        if (hasClientDeadline(parts)) {
+            long millis = Long.parseLong(parts[0].substring(CLIENT_DEADLINE.length()));
+            return Deadline.after(Math.min(millis, MAX_DEADLINE_MS));
+        }
+        return Deadline.after(config.getDeadlineMillis(parts[0], parts.length > 1 ? parts[1] : null));
+    }
+
+    private static boolean hasClientDeadline(String[] parts) {
+        return parts.length > 1 && parts[0].startsWith(CLIENT_DEADLINE)
+                && parts[0].length() > CLIENT_DEADLINE.length() && parts[0].length() < 10
+                && parts[0].substring(CLIENT_DEADLINE.length()).chars().allMatch(Character::isDigit);
+    }
+
+    private static String[] withoutClientDeadline(String[] parts) {
+        return hasClientDeadline(parts) ? Arrays.copyOfRange(parts, 1, parts.length) : parts;
+    }
+
+    // coda piena oppure pool già chiuso da drain()
+    private String rejected() {
+        return draining ? SHUTTING_DOWN : busy();
+    }
+
+    private String busy() {
+        metrics.requestRejectedBusy();
+        // tempo stimato per smaltire la coda attuale, mai sotto il valore configurato
+        long estimate = (long) (getQueueDepth() * avgServiceMillis / workers.getMaximumPoolSize());
+        long retryAfter = Math.min(MAX_RETRY_AFTER_MS, Math.max(retryAfterMillis, estimate));
+        return "BUSY" + SEPARATOR + retryAfter;
+    }
+
+    public int getQueueDepth() {
+        return workers.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return workers.getActiveCount();
+    }
+
+    /**
+     * Smette di accettare richieste (le nuove ricevono "ERROR;shutting_down") e attende fino a
+     * timeoutMillis che quelle in esecuzione o in coda terminino. Restituisce false se allo
+     * scadere qualcuna era ancora attiva: in quel caso i worker vengono interrotti e le
+     * richieste ancora in coda ricevono "ERROR;shutting_down" senza essere eseguite.
+     */
+    public boolean drain(long timeoutMillis) {
+        draining = true;
+        workers.shutdown();
+        try {
+            if (workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Runnable discarded : workers.shutdownNow()) {
+            if (discarded instanceof Queued queued) {
+                queued.reject().accept(SHUTTING_DOWN);
+            }
+        }
+        return false;
+    }
+}
@@ -3,25 +3,67 @@ package ONA.booksrecommender.server;
 import java.io.*;
 import java.net.*;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import ONA.booksrecommender.managers.ThreadManager;
 import ONA.booksrecommender.server.database.Database;
 import ONA.booksrecommender.server.database.dao.*; // UserDAO + BookDAO
+import ONA.booksrecommender.server.network.HttpGateway;
+import ONA.booksrecommender.server.network.NioServer;
+import ONA.booksrecommender.server.protocol.BinaryCodec;
+import ONA.booksrecommender.server.protocol.BinaryResponseWriter;
+import ONA.booksrecommender.server.protocol.Handshake;
+import ONA.booksrecommender.server.protocol.RequestTokenizer;
+import ONA.booksrecommender.server.protocol.ResponseCompressor;
+import ONA.booksrecommender.server.protocol.StreamingResponseWriter;
 
 import ONA.booksrecommender.utils.Logger;
 
 public class Server implements Runnable {
-    private static final int PORT = 1234;
     private static final String SEPARATOR = ";";
+    private static final Set<String> SUPPORTED_FEATURES = Set.of(Handshake.PIPELINE, Handshake.BINARY_V1, Handshake.DEFLATE, Handshake.STREAM);
     private volatile boolean running = true; // controllo per chiudere il server
 
-    private ServerSocket serverSocket;
+    private final ServerConfig config;
+    private final ServerMetrics metrics = new ServerMetrics();
+    private final Semaphore connectionSlots;
+    private final List<Acceptor> acceptors = new CopyOnWriteArrayList<>();
+    private ExecutorService connectionExecutor;
+    private volatile NioServer nioServer;
+    private HttpGateway httpGateway;
+    private ConnectionsCleaner connectionsCleaner;
     
     private Logger logger;
     private Database database;
+    private CategorySamplePool categorySamples;
     private ServerFacade serverFacade;
+    private RequestDispatcher dispatcher;
     private UserDAO userDAO;
     private BookDAO bookDAO;
     
+    public Server() {
+        this(ServerConfig.fromSystemProperties());
+    }
+
+    public Server(ServerConfig config) {
+        this.config = config;
+        this.connectionSlots = new Semaphore(config.getMaxConnections() > 0 ? config.getMaxConnections() : Integer.MAX_VALUE);
+    }
+
+    public ServerMetrics getMetrics() {
+        return metrics;
+    }
+
     private boolean initLogger() {
         this.logger = new Logger();
         new Thread(this.logger, "LoggerThread").start();
@@ -31,13 +73,27 @@ public class Server implements Runnable {
     
     private boolean initDatabase() {
         try{
-            this.database = new Database(logger);
+            this.database = new Database(logger, config);
+            database.getPool().registerMetrics(metrics);
             //this.userDAO = new UserDAO(database.getConnection());
             //this.bookDAO = new BookDAO(database.getConnection());
             // TODO: Aggiungere gli altri DAO (e.g.: recensioni, consigli, librerie)
             logger.log("Database started successfully");
-            this.serverFacade = new ServerFacade(logger, database);
+            BookRecordCache bookRecords = new BookRecordCache(config.getBookRecordCacheSize(), config.getBookRecordCacheTtlMillis());
+            this.categorySamples = new CategorySamplePool(logger, database.getDAO(BookDAO.class),
+                    config.getCategorySampleSize(), config.getCategorySampleRefreshMillis());
+            if (categorySamples.isEnabled()) {
+                metrics.registerGauge("Righe per genere dai campioni", categorySamples::getHits);
+                metrics.registerGauge("Righe per genere dal database", categorySamples::getMisses);
+                metrics.registerGauge("Generi con un campione", categorySamples::getCategories);
+            }
+            this.serverFacade = new ServerFacade(logger, database, bookRecords, categorySamples);
+            if (bookRecords.isEnabled()) {
+                metrics.registerGauge("Record libri dalla cache", bookRecords::getHits);
+                metrics.registerGauge("Record libri codificati", bookRecords::getMisses);
+            }
             logger.log("Server facade initialized successfully");
+            this.dispatcher = new RequestDispatcher(config, logger, serverFacade, metrics);
             return true;
         } catch (SQLException e) {
             logger.log("Database connection error: " + e.getMessage());
@@ -61,55 +117,216 @@ public class Server implements Runnable {
         } catch (Exception e) {
             logger.log("Error: " + e);
         }*/
-        
-        try (ServerSocket ss = new ServerSocket(PORT)) {
-            this.serverSocket = ss;
-            logger.log("Server listening on port " + PORT);
 
+        if (config.getIdleTimeoutMillis() > 0) {
+            this.connectionsCleaner = new ConnectionsCleaner(logger, metrics, config.getIdleTimeoutMillis(), 1000);
+            new ThreadManager("ConnectionsCleaner", true).newThread(connectionsCleaner).start();
+        }
+
+        if (config.getHttpPort() > 0) {
+            this.httpGateway = new HttpGateway(config, logger, serverFacade, dispatcher, metrics);
+            try {
+                httpGateway.start();
+            } catch (IOException e) {
+                logger.log("HTTP gateway error: " + e.getMessage());
+            }
+        }
+
+        if (config.getTransport() == ServerConfig.Transport.NIO) {
+            this.nioServer = new NioServer(config, logger, metrics, dispatcher, connectionSlots, connectionsCleaner);
+            nioServer.run(); // ritorna quando viene chiamato stop()
+            return;
+        }
+        runBlocking();
+    }
+
+    private void runBlocking() {
+        this.connectionExecutor = createConnectionExecutor();
+        try {
+            openAcceptors();
+            logger.log("Server listening on port " + config.getPort() + " (" + config + ")");
+
+            ThreadManager acceptorThreads = new ThreadManager("Acceptor", true);
+            for (int i = 1; i < acceptors.size(); i++) {
+                acceptorThreads.newThread(acceptors.get(i)).start();
+            }
+            acceptors.get(0).run(); // il primo acceptor usa il thread del server
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeAcceptors();
+            connectionExecutor.shutdown(); // i client già connessi terminano da soli alla chiusura del socket
+        }
+    }
+
+    // Con SO_REUSEPORT ogni acceptor ha il suo socket sulla stessa porta e il kernel distribuisce
+    // le connessioni tra le code di accept; dove non è supportato gli acceptor condividono un socket.
+    private void openAcceptors() throws IOException {
+        int count = Math.max(1, config.getAcceptors());
+        acceptors.clear(); // riavvio dal menu
+        ServerSocket shared = null;
+        for (int i = 0; i < count; i++) {
+            ServerSocket ss = shared;
+            if (ss == null) {
+                ss = new ServerSocket();
+                boolean reusePort = count > 1 && ss.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+                if (reusePort) {
+                    ss.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                } else {
+                    shared = ss;
+                }
+                ss.bind(new InetSocketAddress(config.getPort()));
+            }
+            Acceptor acceptor = new Acceptor(i, ss);
+            acceptors.add(acceptor);
+            metrics.registerGauge("Acceptor " + i + " - connessioni accettate", acceptor.accepted::sum);
+            metrics.registerGauge("Acceptor " + i + " - connessioni/min", acceptor::acceptRatePerMinute);
+        }
+        if (count > 1) {
+            logger.log(count + " acceptors " + (shared == null ? "with SO_REUSEPORT" : "sharing one socket (SO_REUSEPORT not supported)"));
+        }
+    }
+
+    private void closeAcceptors() {
+        for (Acceptor acceptor : acceptors) {
+            try {
+                if (!acceptor.serverSocket.isClosed()) {
+                    acceptor.serverSocket.close(); // forza la chiusura del blocking accept()
+                }
+            } catch (IOException e) {
+                // e.printStackTrace();
+                logger.log("Error " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Ciclo di accept su un ServerSocket; con più acceptor ognuno gira sul proprio thread.
+     */
+    private final class Acceptor implements Runnable {
+        private final int index;
+        private final ServerSocket serverSocket;
+        private final LongAdder accepted = new LongAdder();
+        private long lastRateCount;
+        private long lastRateMillis = System.currentTimeMillis();
+
+        Acceptor(int index, ServerSocket serverSocket) {
+            this.index = index;
+            this.serverSocket = serverSocket;
+        }
+
+        @Override
+        public void run() {
             while (running) {
                 try {
                     Socket socket = serverSocket.accept();
-                    logger.log("Connection accepted by " + socket.getInetAddress());
-
-                    Thread clientThread = new Thread(() -> handleClient(socket));
-                    clientThread.start();
-                } catch (SocketException e) {
-                    if (!running) {
-                        logger.log("Server stopped");
-                        break;
-                    } else {
-                        throw e;
+                    accepted.increment();
+
+                    if (!connectionSlots.tryAcquire()) {
+                        rejectClient(socket);
+                        continue;
+                    }
+                    metrics.connectionAccepted();
+                    logger.log("Connection accepted by " + socket.getInetAddress() + " (acceptor " + index + ")");
+
+                    connectionExecutor.execute(() -> {
+                        try {
+                            handleClient(socket);
+                        } finally {
+                            metrics.connectionClosed();
+                            connectionSlots.release();
+                        }
+                    });
+                } catch (IOException e) {
+                    if (running && !serverSocket.isClosed()) {
+                        logger.log("Error " + e.getMessage());
                     }
+                    logger.log("Acceptor " + index + " stopped");
+                    break;
                 }
             }
+        }
+
+        // connessioni al minuto dall'ultima lettura delle statistiche
+        synchronized long acceptRatePerMinute() {
+            long now = System.currentTimeMillis();
+            long count = accepted.sum();
+            long elapsed = Math.max(1, now - lastRateMillis);
+            long rate = (count - lastRateCount) * 60_000 / elapsed;
+            lastRateCount = count;
+            lastRateMillis = now;
+            return rate;
+        }
+    }
+
+    private ExecutorService createConnectionExecutor() {
+        if (config.getExecutionMode() == ServerConfig.ExecutionMode.VIRTUAL) {
+            return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ClientThread-", 0).factory());
+        }
+        return Executors.newCachedThreadPool(new ThreadManager("ClientThread", false));
+    }
+
+    // Limite di connessioni raggiunto: avvisa il client e chiude subito, senza occupare un thread
+    private void rejectClient(Socket socket) {
+        metrics.connectionRejected();
+        logger.log("Connection rejected (limit " + config.getMaxConnections() + " reached) from " + socket.getInetAddress());
+        try (socket; PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+            out.println("ERROR" + SEPARATOR + "server_full");
         } catch (IOException e) {
-            e.printStackTrace();
+            logger.log("Error " + e.getMessage());
         }
     }
 
     private void handleClient(Socket socket) {
+        ConnectionsCleaner.Entry idleEntry = connectionsCleaner != null
+                ? connectionsCleaner.register(socket, String.valueOf(socket.getInetAddress()))
+                : null;
+        ResponseCompressor compressor = null;
+        ClientContext client = new ClientContext(socket.getInetAddress().getHostAddress());
         try (
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            PrintWriter out = new PrintWriter(socket.getOutputStream(), true)
+            InputStream rawIn = new BufferedInputStream(socket.getInputStream());
+            OutputStream rawOut = new BufferedOutputStream(socket.getOutputStream())
         ) {
-            String message;
-            while ((message = in.readLine()) != null) {
-                logger.log("Received: " + message); // TODO: sistemare il logger gestendo i tipi di log
-                String response;
-
-                try {
-                    response = serverFacade.handleRequest(message);
-                } catch (Exception e) {
-                    logger.log("Error handling request: " + e.getMessage());
-                    response = "ERROR;" + e.getMessage();
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(rawOut, StandardCharsets.UTF_8), true);
+            String message = Handshake.readLine(rawIn);
+            Handshake handshake = Handshake.none();
+            if (message != null && Handshake.isHandshake(message)) {
+                handshake = Handshake.parse(message, SUPPORTED_FEATURES);
+                out.println(handshake.reply());
+                if (handshake.has(Handshake.DEFLATE)) {
+                    compressor = config.newCompressor(metrics);
+                }
+                if (handshake.has(Handshake.BINARY_V1)) {
+                    handleBinary(rawIn, rawOut, idleEntry, client, handshake.has(Handshake.PIPELINE), compressor);
+                    return;
                 }
+                message = Handshake.readLine(rawIn);
+            }
 
-                out.println(response);
+            BufferedReader in = new BufferedReader(new InputStreamReader(rawIn, StandardCharsets.UTF_8));
+            if (handshake.has(Handshake.PIPELINE)) {
+                handlePipelined(in, out, message, idleEntry, client, compressor, handshake.has(Handshake.STREAM));
+                return;
             }
-        } catch (IOException e) {
+            boolean streaming = handshake.has(Handshake.STREAM);
+            while (message != null) {
+                if (idleEntry != null) idleEntry.touch();
+                if (streaming) {
+                    StreamingResponseWriter response = new StreamingResponseWriter(out, null, compressor);
+                    dispatcher.execute(RequestTokenizer.split(message), response, client);
+                    response.finish();
+                } else {
+                    String response = dispatcher.execute(message, client);
+                    out.println(compressor != null ? compressor.compress(response) : response);
+                }
+                message = in.readLine();
+            }
+        } catch (IOException | RuntimeException e) {
             // e.printStackTrace();
             logger.log("Error " + e.getMessage()); // TODO forse: cambiare in e.printStackTrace(); per ottenere l'errore completo
         } finally {                                // per farlo, però, devo prima salvarlo in un PrintWriter
+            if (idleEntry != null) idleEntry.cancel();
+            if (compressor != null) compressor.close();
             try {                                  // StringWriter sw = new StringWriter();
                 socket.close();                    // e.printStackTrace(new PrintWriter(sw));
             } catch (IOException e) {              // String logMsg = "Errore di esempio: " + sw.toString();
@@ -119,18 +336,126 @@ public class Server implements Runnable {
         }
     }
 
+    // Modalità pipeline: ogni riga è "id;richiesta" e viene eseguita senza attendere le precedenti;
+    // le risposte "id;risposta" sono scritte appena pronte. Al massimo maxInFlight richieste per connessione.
+    private void handlePipelined(BufferedReader in, PrintWriter out, String message, ConnectionsCleaner.Entry idleEntry,
+                                 ClientContext client, ResponseCompressor compressor, boolean streaming) throws IOException {
+        int maxInFlight = Math.max(1, config.getMaxInFlight());
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try {
+            while (message != null) {
+                if (idleEntry != null) idleEntry.touch();
+                int sep = message.indexOf(SEPARATOR);
+                String id = sep >= 0 ? message.substring(0, sep) : message;
+                String request = sep >= 0 ? message.substring(sep + 1) : "";
+
+                inFlight.acquireUninterruptibly(); // troppe richieste in volo: smette di leggere finché una non termina
+                if (streaming) {
+                    StreamingResponseWriter response = new StreamingResponseWriter(out, id + SEPARATOR, compressor);
+                    dispatcher.submit(RequestTokenizer.split(request), response, client, () -> {
+                        try {
+                            response.finish();
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } else {
+                    dispatcher.submit(request, client, response -> {
+                        try {
+                            String encoded = compressor != null ? compressor.compress(response) : response;
+                            synchronized (out) {
+                                out.println(id + SEPARATOR + encoded);
+                            }
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                }
+                message = in.readLine();
+            }
+        } finally {
+            // il client ha chiuso l'invio: attende le risposte ancora in volo prima di chiudere il socket
+            try {
+                inFlight.tryAcquire(maxInFlight, 30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Protocollo binario: un frame per richiesta e uno per risposta (vedi BinaryCodec)
+    private void handleBinary(InputStream in, OutputStream out, ConnectionsCleaner.Entry idleEntry, ClientContext client, boolean pipelined,
+                              ResponseCompressor compressor) throws IOException {
+        int maxInFlight = pipelined ? Math.max(1, config.getMaxInFlight()) : 1;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        try {
+            String[] parts;
+            while ((parts = BinaryCodec.readRequest(in)) != null) {
+                if (idleEntry != null) idleEntry.touch();
+                String id = null;
+                if (pipelined && parts.length > 0) {
+                    id = parts[0];
+                    parts = Arrays.copyOfRange(parts, 1, parts.length);
+                }
+
+                String correlationId = id;
+                BinaryResponseWriter response = new BinaryResponseWriter();
+                inFlight.acquireUninterruptibly();
+                dispatcher.submit(parts, response, client, () -> {
+                    try {
+                        synchronized (out) {
+                            response.writeFrame(out, correlationId, compressor);
+                            out.flush();
+                        }
+                    } catch (IOException e) {
+                        logger.log("Error " + e.getMessage());
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            try {
+                inFlight.tryAcquire(maxInFlight, 30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Arresto in tre fasi: smette di accettare connessioni, attende fino a drainTimeoutMs le
+     * richieste in corso (quelle nuove ricevono "ERROR;shutting_down") e solo alla fine chiude
+     * trasporto e DAO, così le richieste già partite non falliscono per la connessione al DB chiusa.
+     */
     public void stop() {
         running = false;
-        if (database != null) {
-            database.close();
+        closeAcceptors();
+        if (nioServer != null) {
+            nioServer.stopAccepting();
         }
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close(); // forza la chiusura del blocking accept()
+
+        if (dispatcher != null) {
+            logger.log("Draining " + (dispatcher.getActiveCount() + dispatcher.getQueueDepth()) + " requests . . .");
+            if (!dispatcher.drain(config.getDrainTimeoutMillis())) {
+                logger.log("Drain timeout (" + config.getDrainTimeoutMillis() + " ms): pending requests interrupted");
             }
-        } catch (IOException e) {
-            // e.printStackTrace();
-            logger.log("Error " + e.getMessage());
+        }
+
+        if (httpGateway != null) {
+            httpGateway.stop(); // durante il drain le nuove richieste HTTP hanno ricevuto 503
+        }
+        if (connectionsCleaner != null) {
+            connectionsCleaner.stop();
+        }
+        if (nioServer != null) {
+            nioServer.stop();
+        }
+        if (categorySamples != null) {
+            categorySamples.close();
+        }
+        if (database != null) {
+            database.close();
         }
     }
 }
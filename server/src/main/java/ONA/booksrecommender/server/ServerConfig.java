@@ -0,0 +1,328 @@
+package ONA.booksrecommender.server;
+
+import ONA.booksrecommender.server.protocol.ResponseCompressor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Configurazione del server, letta dalle proprietà di sistema all'avvio
+ * (es. {@code java -Dbooksrecommender.executor=virtual -jar server.jar}).
+ * I valori di default riproducono il comportamento storico del server.
+ */
+public class ServerConfig {
+    private static final String PREFIX = "booksrecommender.";
+
+    // le ricerche con ILIKE e ORDER BY RANDOM() costano più delle letture per chiave
+    private static final Map<String, Long> DEFAULT_RATE_LIMIT_COSTS = Map.of(
+            "get_book.top", 5L,
+            "get_book.title", 3L,
+            "get_book.author", 3L
+    );
+
+    /**
+     * Modalità di esecuzione delle connessioni.
+     * PLATFORM: un thread di sistema per ogni client (comportamento storico).
+     * VIRTUAL: un virtual thread per ogni client, adatto a migliaia di client inattivi.
+     */
+    public enum ExecutionMode { PLATFORM, VIRTUAL }
+
+    /**
+     * Trasporto di rete.
+     * BLOCKING: ServerSocket con un thread per connessione (comportamento storico).
+     * NIO: Selector non bloccante con pochi thread di I/O e un pool di worker.
+     */
+    public enum Transport { BLOCKING, NIO }
+
+    private final int port;
+    private final ExecutionMode executionMode;
+    private final int maxConnections;
+    private final Transport transport;
+    private final int ioThreads;
+    private final int workerThreads;
+    private final int requestQueueCapacity;
+    private final int busyRetryMillis;
+    private final long idleTimeoutMillis;
+    private final int maxInFlight;
+    private final int compressionThreshold;
+    private final int compressionLevel;
+    private final long drainTimeoutMillis;
+    private final long deadlineMillis;
+    private final Map<String, Long> commandDeadlines;
+    private final int rateLimit;
+    private final int rateLimitBurst;
+    private final Map<String, Long> rateLimitCosts;
+    private final int acceptors;
+    private final int bookRecordCacheSize;
+    private final long bookRecordCacheTtlMillis;
+    private final int httpPort;
+    private final int httpMaxAgeSeconds;
+    private final int dbPoolMin;
+    private final int dbPoolMax;
+    private final long dbBorrowTimeoutMillis;
+    private final long dbLeakThresholdMillis;
+    private final int dbStatementCacheSize;
+    private final int dbPrepareThreshold;
+    private final int categorySampleSize;
+    private final long categorySampleRefreshMillis;
+
+    public ServerConfig(int port, ExecutionMode executionMode, int maxConnections, Transport transport, int ioThreads,
+                        int workerThreads, int requestQueueCapacity, int busyRetryMillis, long idleTimeoutMillis,
+                        int maxInFlight, int compressionThreshold, int compressionLevel, long drainTimeoutMillis,
+                        long deadlineMillis, Map<String, Long> commandDeadlines,
+                        int rateLimit, int rateLimitBurst, Map<String, Long> rateLimitCosts, int acceptors,
+                        int bookRecordCacheSize, long bookRecordCacheTtlMillis, int httpPort, int httpMaxAgeSeconds,
+                        int dbPoolMin, int dbPoolMax, long dbBorrowTimeoutMillis, long dbLeakThresholdMillis,
+                        int dbStatementCacheSize, int dbPrepareThreshold,
+                        int categorySampleSize, long categorySampleRefreshMillis) {
+        this.port = port;
+        this.executionMode = executionMode;
+        this.maxConnections = maxConnections;
+        this.transport = transport;
+        this.ioThreads = ioThreads;
+        this.workerThreads = workerThreads;
+        this.requestQueueCapacity = requestQueueCapacity;
+        this.busyRetryMillis = busyRetryMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxInFlight = maxInFlight;
+        this.compressionThreshold = compressionThreshold;
+        this.compressionLevel = compressionLevel;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.deadlineMillis = deadlineMillis;
+        this.commandDeadlines = Map.copyOf(commandDeadlines);
+        this.rateLimit = rateLimit;
+        this.rateLimitBurst = rateLimitBurst;
+        this.rateLimitCosts = Map.copyOf(rateLimitCosts);
+        this.acceptors = acceptors;
+        this.bookRecordCacheSize = bookRecordCacheSize;
+        this.bookRecordCacheTtlMillis = bookRecordCacheTtlMillis;
+        this.httpPort = httpPort;
+        this.httpMaxAgeSeconds = httpMaxAgeSeconds;
+        this.dbPoolMin = dbPoolMin;
+        this.dbPoolMax = dbPoolMax;
+        this.dbBorrowTimeoutMillis = dbBorrowTimeoutMillis;
+        this.dbLeakThresholdMillis = dbLeakThresholdMillis;
+        this.dbStatementCacheSize = dbStatementCacheSize;
+        this.dbPrepareThreshold = dbPrepareThreshold;
+        this.categorySampleSize = categorySampleSize;
+        this.categorySampleRefreshMillis = categorySampleRefreshMillis;
+    }
+
+    public static ServerConfig fromSystemProperties() {
+        return new ServerConfig(
+                Integer.getInteger(PREFIX + "port", 1234),
+                ExecutionMode.valueOf(System.getProperty(PREFIX + "executor", "platform").trim().toUpperCase()),
+                Integer.getInteger(PREFIX + "maxConnections", 0),
+                Transport.valueOf(System.getProperty(PREFIX + "transport", "blocking").trim().toUpperCase()),
+                Integer.getInteger(PREFIX + "ioThreads", 2),
+                Integer.getInteger(PREFIX + "workerThreads", Runtime.getRuntime().availableProcessors() * 2),
+                Integer.getInteger(PREFIX + "requestQueue", 256),
+                Integer.getInteger(PREFIX + "busyRetryMs", 100),
+                Long.getLong(PREFIX + "idleTimeoutMs", 300_000L),
+                Integer.getInteger(PREFIX + "maxInFlight", 16),
+                Integer.getInteger(PREFIX + "compressionThreshold", 1024),
+                Integer.getInteger(PREFIX + "compressionLevel", 1),
+                Long.getLong(PREFIX + "drainTimeoutMs", 10_000L),
+                Long.getLong(PREFIX + "deadlineMs", 5_000L),
+                commandValuesFromSystemProperties("deadlineMs.", Map.of()),
+                Integer.getInteger(PREFIX + "rateLimit", 0),
+                Integer.getInteger(PREFIX + "rateLimitBurst", 20),
+                commandValuesFromSystemProperties("rateLimit.cost.", DEFAULT_RATE_LIMIT_COSTS),
+                Integer.getInteger(PREFIX + "acceptors", 1),
+                Integer.getInteger(PREFIX + "bookRecordCache", 4096),
+                Long.getLong(PREFIX + "bookRecordCacheTtlMs", 600_000L),
+                Integer.getInteger(PREFIX + "httpPort", 0),
+                Integer.getInteger(PREFIX + "httpMaxAge", 300),
+                Integer.getInteger(PREFIX + "dbPoolMin", 2),
+                Integer.getInteger(PREFIX + "dbPoolMax", 10),
+                Long.getLong(PREFIX + "dbBorrowTimeoutMs", 5_000L),
+                Long.getLong(PREFIX + "dbLeakThresholdMs", 30_000L),
+                Integer.getInteger(PREFIX + "dbStatementCache", 64),
+                Integer.getInteger(PREFIX + "dbPrepareThreshold", -1),
+                Integer.getInteger(PREFIX + "categorySample", 500),
+                Long.getLong(PREFIX + "categorySampleRefreshMs", 600_000L)
+        );
+    }
+
+    // booksrecommender.<name><comando>[.<tipo>]=valore, es. deadlineMs.get_book.top=2000
+    private static Map<String, Long> commandValuesFromSystemProperties(String name, Map<String, Long> defaults) {
+        String prefix = PREFIX + name;
+        Map<String, Long> values = new HashMap<>(defaults);
+        for (String property : System.getProperties().stringPropertyNames()) {
+            Long value = property.startsWith(prefix) ? Long.getLong(property) : null;
+            if (value != null) {
+                values.put(property.substring(prefix.length()), value);
+            }
+        }
+        return values;
+    }
+
+    // prima "comando.tipo", poi "comando", poi il default
+    private static long commandValue(Map<String, Long> values, String command, String type, long defaultValue) {
+        Long value = type != null ? values.get(command + "." + type) : null;
+        if (value == null) {
+            value = values.getOrDefault(command, defaultValue);
+        }
+        return value;
+    }
+
+    public int getPort() { return port; }
+
+    public ExecutionMode getExecutionMode() { return executionMode; }
+
+    /**
+     * Numero massimo di connessioni contemporanee; 0 o negativo significa nessun limite.
+     */
+    public int getMaxConnections() { return maxConnections; }
+
+    public Transport getTransport() { return transport; }
+
+    /**
+     * Thread di I/O del trasporto NIO (ognuno con il proprio Selector).
+     */
+    public int getIoThreads() { return ioThreads; }
+
+    /**
+     * Thread del RequestDispatcher che eseguono ServerFacade.handleRequest.
+     */
+    public int getWorkerThreads() { return workerThreads; }
+
+    /**
+     * Richieste che possono attendere un worker libero; oltre questo limite si risponde BUSY.
+     */
+    public int getRequestQueueCapacity() { return requestQueueCapacity; }
+
+    /**
+     * Attesa minima suggerita al client nelle risposte BUSY.
+     */
+    public int getBusyRetryMillis() { return busyRetryMillis; }
+
+    /**
+     * Inattività dopo cui una connessione viene chiusa; 0 o negativo disattiva il controllo.
+     */
+    public long getIdleTimeoutMillis() { return idleTimeoutMillis; }
+
+    /**
+     * Richieste contemporanee per singola connessione in modalità pipeline.
+     */
+    public int getMaxInFlight() { return maxInFlight; }
+
+    /**
+     * Dimensione minima in byte perché una risposta venga compressa (connessioni con "deflate").
+     */
+    public int getCompressionThreshold() { return compressionThreshold; }
+
+    /**
+     * Livello del Deflater, da 1 (più veloce) a 9 (più compatto).
+     */
+    public int getCompressionLevel() { return compressionLevel; }
+
+    /**
+     * Tempo concesso alle richieste in corso per terminare quando il server viene fermato.
+     */
+    public long getDrainTimeoutMillis() { return drainTimeoutMillis; }
+
+    /**
+     * Thread che accettano connessioni sulla porta (trasporto bloccante), ognuno con il proprio
+     * socket SO_REUSEPORT dove il sistema operativo lo permette.
+     */
+    public int getAcceptors() { return acceptors; }
+
+    /**
+     * Record di libri già codificati tenuti in memoria (vedi BookRecordCache); 0 disattiva la cache.
+     */
+    public int getBookRecordCacheSize() { return bookRecordCacheSize; }
+
+    /**
+     * Durata di un record nella BookRecordCache prima di essere riletto dal database.
+     */
+    public long getBookRecordCacheTtlMillis() { return bookRecordCacheTtlMillis; }
+
+    /**
+     * Porta del gateway HTTP/JSON (vedi HttpGateway); 0 lo disattiva.
+     */
+    public int getHttpPort() { return httpPort; }
+
+    /**
+     * Secondi per cui le cache HTTP possono riusare le risposte sul catalogo senza riconvalidarle.
+     */
+    public int getHttpMaxAgeSeconds() { return httpMaxAgeSeconds; }
+
+    /**
+     * Connessioni al database aperte all'avvio e mantenute anche quando inattive.
+     */
+    public int getDbPoolMin() { return dbPoolMin; }
+
+    /**
+     * Connessioni al database contemporanee al massimo (vedi ConnectionPool).
+     */
+    public int getDbPoolMax() { return dbPoolMax; }
+
+    /**
+     * Attesa massima di una connessione libera (ridotta alla scadenza della richiesta).
+     */
+    public long getDbBorrowTimeoutMillis() { return dbBorrowTimeoutMillis; }
+
+    /**
+     * Prestito oltre cui una connessione viene segnalata come possibile leak; 0 disattiva il controllo.
+     */
+    public long getDbLeakThresholdMillis() { return dbLeakThresholdMillis; }
+
+    /**
+     * PreparedStatement tenuti in cache per ogni connessione del pool; 0 disattiva la cache.
+     */
+    public int getDbStatementCacheSize() { return dbStatementCacheSize; }
+
+    /**
+     * Parametro prepareThreshold del driver PostgreSQL: esecuzioni dello stesso statement dopo cui
+     * diventa un prepared statement lato server. Negativo = automatico (vedi Database).
+     */
+    public int getDbPrepareThreshold() { return dbPrepareThreshold; }
+
+    /**
+     * ID di libri tenuti in memoria per ogni genere della home (vedi CategorySamplePool); 0 li disattiva.
+     */
+    public int getCategorySampleSize() { return categorySampleSize; }
+
+    /**
+     * Intervallo tra una ricostruzione dei campioni per genere e la successiva.
+     */
+    public long getCategorySampleRefreshMillis() { return categorySampleRefreshMillis; }
+
+    /**
+     * Scadenza di una richiesta: prima "comando.tipo" (es. get_book.top), poi "comando", poi il default.
+     */
+    public long getDeadlineMillis(String command, String type) {
+        return commandValue(commandDeadlines, command, type, deadlineMillis);
+    }
+
+    /**
+     * Gettoni al secondo concessi a ogni client (utente o indirizzo); 0 disattiva il rate limiting.
+     */
+    public int getRateLimit() { return rateLimit; }
+
+    /**
+     * Gettoni che un client può accumulare, cioè la raffica massima di richieste consecutive.
+     */
+    public int getRateLimitBurst() { return rateLimitBurst; }
+
+    /**
+     * Gettoni consumati da un comando, con la stessa ricerca di getDeadlineMillis (default 1).
+     */
+    public int getRateLimitCost(String command, String type) {
+        return (int) commandValue(rateLimitCosts, command, type, 1);
+    }
+
+    public ResponseCompressor newCompressor(ServerMetrics metrics) {
+        return new ResponseCompressor(compressionLevel, compressionThreshold, metrics);
+    }
+
+    @Override
+    public String toString() {
+        return "transport=" + transport + ", port=" + port + ", executor=" + executionMode + ", maxConnections=" + (maxConnections > 0 ? maxConnections : "unlimited")
+                + (transport == Transport.NIO ? ", ioThreads=" + ioThreads : ", acceptors=" + acceptors)
+                + ", workerThreads=" + workerThreads + ", dbPool=" + dbPoolMin + ".." + dbPoolMax + ", requestQueue=" + requestQueueCapacity
+                + ", idleTimeoutMs=" + (idleTimeoutMillis > 0 ? idleTimeoutMillis : "disabled")
+                + (httpPort > 0 ? ", httpPort=" + httpPort : "");
+    }
+}
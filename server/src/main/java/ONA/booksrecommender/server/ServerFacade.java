@@ -8,19 +8,39 @@ import ONA.booksrecommender.objects.Book;
 import ONA.booksrecommender.objects.Library;
 import ONA.booksrecommender.objects.Rating;
 import ONA.booksrecommender.objects.Recommendation;
+import ONA.booksrecommender.server.database.FanOut;
+import ONA.booksrecommender.server.protocol.Batch;
+import ONA.booksrecommender.server.protocol.RequestTokenizer;
+import ONA.booksrecommender.server.protocol.ResponseWriter;
+import ONA.booksrecommender.server.protocol.TextResponseWriter;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.crypto.Data;
 import java.sql.SQLException;
-import java.util.stream.Collectors;
 import java.util.Base64;
 import java.nio.charset.StandardCharsets;
 
 public class ServerFacade {
     private static final String SEPARATOR = ";";
     private static final String ERROR_MESSAGE = "ERROR" + SEPARATOR + "missing_params";
+    private static final String INVALID_CURSOR = "ERROR" + SEPARATOR + "invalid_cursor";
+    private static final int PAGE_SIZE = 20; // libri per pagina nelle ricerche per titolo e autore
+    // comandi senza effetti collaterali: in un batch possono essere eseguiti in parallelo
+    private static final Set<String> READ_ONLY_COMMANDS = Set.of(
+            "get_user", "get_book", "get_user_library", "get_user_libraries",
+            "get_book_reviews", "get_user_reviews", "get_book_advices", "get_advices_made_by_user");
+    // comandi che modificano i dati degli utenti (login, batch e comandi sconosciuti non ne fanno parte)
+    private static final Set<String> WRITE_COMMANDS = Set.of(
+            "sign_up", "add_library", "remove_library", "add_book_to_library", "remove_book_from_library",
+            "add_book_review", "remove_book_review", "add_book_advice", "remove_book_advice");
     private final Logger logger;
     private final Database database;
 
@@ -29,10 +49,15 @@ public class ServerFacade {
     private final LibraryDAO libraryDAO;
     private final RatingDAO ratingDAO;
     private final RecommendationDAO recommendationDAO;
+    private final BookRecordCache bookRecords;
+    private final CategorySamplePool categorySamples;
+    private final AtomicLong dataVersion = new AtomicLong(); // incrementata dopo ogni comando di scrittura
 
-    public ServerFacade(Logger logger, Database database) {
+    public ServerFacade(Logger logger, Database database, BookRecordCache bookRecords, CategorySamplePool categorySamples) {
         this.logger = logger;
         this.database = database;
+        this.bookRecords = bookRecords;
+        this.categorySamples = categorySamples;
 
         this.userDAO = database.getDAO(UserDAO.class);
         this.bookDAO = database.getDAO(BookDAO.class);
@@ -41,17 +66,225 @@ public class ServerFacade {
         this.recommendationDAO = database.getDAO(RecommendationDAO.class);
     }
 
-    private String formatRecommendationList(List<Recommendation> list) {
-        StringBuilder sb = new StringBuilder();
+    // book_id;id_consigliati separati da ","
+    private void writeRecommendations(ResponseWriter out, List<Recommendation> list) {
+        out.beginList();
         for (Recommendation rec : list) {
-            String recs = String.join(",", rec.getRecommendedBookIds());
-            sb.append(rec.getBookId()).append(SEPARATOR).append(recs).append("|");
+            out.beginRecord();
+            out.field(rec.getBookId());
+            out.field(rec.getRecommendedBookIds(), ",");
+            out.endRecord();
         }
-        return sb.toString();
+        out.endList();
     }
 
+    // id;nome;username;id_libri separati da ","
+    private void writeLibrary(ResponseWriter out, Library library) {
+        out.beginRecord();
+        out.field(library.getId());
+        out.field(library.getName());
+        out.field(library.getUserId());
+        out.field(library.getBookIds().stream().map(String::valueOf).toList(), ",");
+        out.endRecord();
+    }
+
+    // nel protocollo testuale il record viene dalla cache dei libri già codificati
+    private void writeBook(ResponseWriter out, Book book, boolean withDescription) {
+        if (out instanceof TextResponseWriter text) {
+            text.rawRecord(bookRecords.get(book, withDescription, this::encodeBook));
+            return;
+        }
+        writeBookFields(out, book, withDescription);
+    }
+
+    // record dalla cache per ID, solo nel protocollo testuale: false se il libro va letto dal database
+    private boolean writeCachedBook(ResponseWriter out, int bookId, boolean withDescription) {
+        if (!(out instanceof TextResponseWriter text)) {
+            return false;
+        }
+        String record = bookRecords.get(bookId, withDescription);
+        if (record == null) {
+            return false;
+        }
+        text.rawRecord(record);
+        return true;
+    }
+
+    private String encodeBook(Book book, boolean withDescription) {
+        TextResponseWriter record = new TextResponseWriter();
+        writeBookFields(record, book, withDescription);
+        return record.toString();
+    }
+
+    // id;titolo;autori;anno;editore;categoria;copertina[;descrizione]
+    private void writeBookFields(ResponseWriter out, Book book, boolean withDescription) {
+        out.beginRecord();
+        out.field(book.getId());
+        out.field(book.getTitle());
+        out.field(book.getAuthors(), ", ");
+        out.field(book.getPublicationYear());
+        out.field(book.getPublisher());
+        out.field(book.getCategory());
+        out.field(book.getCoverImageUrl());
+        if (withDescription) {
+            out.textField(book.getDescription());
+        }
+        out.endRecord();
+    }
+
+    /**
+     * Token opaco per la pagina successiva di una ricerca: la chiave (anno, ID) dell'ultimo
+     * libro inviato, in Base64 URL-safe (senza ";" e "|"). Inizia con una lettera, così non
+     * si confonde con l'offset numerico dei client precedenti.
+     */
+    private static String encodeCursor(Book last) {
+        String key = last.getPublicationYear() + ":" + last.getId();
+        return "k" + Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Chiave contenuta nel token, oppure null se il token non è valido.
+     */
+    private static BookDAO.Keyset decodeCursor(String token) {
+        if (!token.startsWith("k")) {
+            return null;
+        }
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(token.substring(1)), StandardCharsets.UTF_8);
+            int colon = key.indexOf(':');
+            return new BookDAO.Keyset(Integer.parseInt(key.substring(0, colon)), Integer.parseInt(key.substring(colon + 1)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // offset numerico inviato dai client che non conoscono i token ("0" = prima pagina)
+    private static boolean isLegacyOffset(String token) {
+        return !token.isEmpty() && token.chars().allMatch(Character::isDigit);
+    }
+
+    // record finale NEXT;token, solo se la pagina è piena e quindi ne può seguire un'altra
+    private static void writeNextCursor(ResponseWriter out, int found, Book last) {
+        if (found == PAGE_SIZE && last != null) {
+            out.beginRecord();
+            out.field("NEXT");
+            out.field(encodeCursor(last));
+            out.endRecord();
+        }
+    }
+
+    // username;book_id;stile;contenuto;gradevolezza;originalità;edizione;voto_finale;note
+    private void writeRating(ResponseWriter out, Rating rating) {
+        out.beginRecord();
+        out.field(rating.getUserId());
+        out.field(rating.getBookId());
+        out.field(rating.getStyle());
+        out.field(rating.getContent());
+        out.field(rating.getEnjoyment());
+        out.field(rating.getOriginality());
+        out.field(rating.getEdition());
+        out.field(rating.getFinalScore());
+        out.textField(rating.getNotes() == null ? "" : rating.getNotes()); // Base64 nel testo: i ';' nella nota non rompono il parsing
+        out.endRecord();
+    }
+
+    // batch di sola lettura: sotto-richieste in parallelo, altrimenti una alla volta nell'ordine dato.
+    // Al massimo un quarto delle connessioni del pool per batch: i rami prendono ciascuno una
+    // connessione e un solo batch non deve poter bloccare tutte le altre richieste
+    private List<String> runBatch(List<String> requests, ClientContext client) throws Exception {
+        List<String> responses = new ArrayList<>(requests.size());
+        boolean readOnly = requests.stream().allMatch(r -> READ_ONLY_COMMANDS.contains(r.split(SEPARATOR, 2)[0]));
+        if (!readOnly || requests.size() == 1) {
+            for (String request : requests) {
+                responses.add(runBatchRequest(request, client));
+            }
+            return responses;
+        }
+
+        // la scadenza del batch vale per ogni sotto-richiesta (FanOut la propaga); ogni ramo
+        // esegue la prossima sotto-richiesta libera finché non sono finite
+        int parallelism = Math.min(requests.size(), Math.max(1, database.getPool().getMaxSize() / 4));
+        String[] results = new String[requests.size()];
+        AtomicInteger next = new AtomicInteger();
+        List<CompletableFuture<Void>> branches = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            branches.add(FanOut.fork(() -> {
+                for (int j = next.getAndIncrement(); j < results.length; j = next.getAndIncrement()) {
+                    results[j] = runBatchRequest(requests.get(j), client);
+                }
+                return null;
+            }));
+        }
+        FanOut.joinAll(branches.toArray(new CompletableFuture<?>[0]));
+        responses.addAll(Arrays.asList(results));
+        return responses;
+    }
+
+    private String runBatchRequest(String request, ClientContext client) {
+        String[] parts = RequestTokenizer.split(request);
+        if (Batch.isBatch(parts)) return "ERROR" + SEPARATOR + "nested_batch";
+        TextResponseWriter out = new TextResponseWriter();
+        handleRequest(parts, out, client);
+        return out.toString();
+    }
+
+    /**
+     * Esegue una richiesta del protocollo testuale e restituisce la risposta come riga di testo.
+     */
     public String handleRequest(String req) {
-        String[] parts = req.split(SEPARATOR);
+        TextResponseWriter out = new TextResponseWriter();
+        handleRequest(RequestTokenizer.split(req), out);
+        return out.toString();
+    }
+
+    /**
+     * Esegue una richiesta già divisa nei suoi campi, scrivendo la risposta su out
+     * (usato anche dal protocollo binario, dove i campi possono contenere ";").
+     */
+    public void handleRequest(String[] parts, ResponseWriter out) {
+        handleRequest(parts, out, null);
+    }
+
+    /**
+     * Come handleRequest(parts, out); client (può essere null) riceve lo username dopo un login riuscito.
+     */
+    public void handleRequest(String[] parts, ResponseWriter out, ClientContext client) {
+        String reply = dispatch(parts, out, client);
+        if (parts.length > 0 && WRITE_COMMANDS.contains(parts[0])) {
+            dataVersion.incrementAndGet(); // dopo la scrittura: una lettura iniziata prima resta con la versione vecchia
+        }
+        if (reply != null) {
+            out.reply(reply);
+        }
+    }
+
+    /**
+     * true se la richiesta non modifica dati; un batch lo è se lo sono tutte le sue sotto-richieste.
+     */
+    public static boolean isReadOnly(String[] parts) {
+        if (parts.length == 0) return true;
+        if (!Batch.isBatch(parts)) return READ_ONLY_COMMANDS.contains(parts[0]);
+        try {
+            for (String request : Batch.decode(parts)) {
+                if (!isReadOnly(RequestTokenizer.split(request))) return false;
+            }
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false; // batch malformato: la risposta è già un errore
+        }
+    }
+
+    /**
+     * Versione dei dati degli utenti in questo processo: cambia dopo ogni comando di scrittura
+     * (anche dentro un batch). Usata dal gateway HTTP per rispondere 304 senza eseguire la richiesta.
+     */
+    public long getDataVersion() {
+        return dataVersion.get();
+    }
+
+    // restituisce la risposta semplice, oppure null se la risposta è stata scritta come record su out
+    private String dispatch(String[] parts, ResponseWriter out, ClientContext client) {
+        if (parts.length == 0) return ERROR_MESSAGE; // sotto-richiesta vuota di un batch
         try {
             String cmd = parts[0];
             switch (cmd) {
@@ -60,14 +293,23 @@ public class ServerFacade {
                     String username = parts[1];
                     User user = userDAO.getUser(username, false);
                     if (user == null) return "NOT_FOUND";
-                    // serializzazione semplice: username;name;surname;email
-                    return String.join(SEPARATOR, user.getUserId(), user.getName(), user.getSurname(), user.getEmail());
+                    // record username;name;surname;email: nel protocollo binario i campi restano separati anche se contengono ";"
+                    out.beginRecord();
+                    out.field(user.getUserId());
+                    out.field(user.getName());
+                    out.field(user.getSurname());
+                    out.field(user.getEmail());
+                    out.endRecord();
+                    return null;
                 }
                 case "login": {
                     if (parts.length < 3) return ERROR_MESSAGE;
                     String username = parts[1];
                     String password = parts[2];
                     int code = userDAO.login(username, password);
+                    if (code == 0 && client != null) {
+                        client.setUsername(username); // da qui il rate limit è per utente
+                    }
                     // codice: 0 success, -2 wrong password, -3 error or not found
                     return "LOGIN" + SEPARATOR + Integer.toString(code);
                 }
@@ -95,45 +337,79 @@ public class ServerFacade {
                     if (parts.length < 3) return ERROR_MESSAGE;
                     switch (parts[1]) {
                         case "id": {
-                            Book book = bookDAO.getBook(Integer.parseInt(parts[2]));
+                            int bookId = Integer.parseInt(parts[2]);
+                            if (writeCachedBook(out, bookId, true)) return null;
+                            Book book = bookDAO.getBook(bookId);
+                            if (book == null) return "NOT_FOUND";
                             logger.log(book.toString());
-                            List<String> authors = book.getAuthors();
-                            String authorsString = String.join(", ", authors);
-                            String encodedDesc = Base64.getEncoder().encodeToString(
-                                    book.getDescription().getBytes(StandardCharsets.UTF_8)
-                            );
                             // TODO: valutare l'utilizzo di book.toString() in base a cosa è più comodo
-                            return String.join(SEPARATOR, Integer.toString(book.getId()), book.getTitle(), authorsString, Integer.toString(book.getPublicationYear()), book.getPublisher(), book.getCategory(), book.getCoverImageUrl(), encodedDesc);
+                            writeBook(out, book, true);
+                            return null;
                         }
-                        case "list": {
+                        case "list": { // get_book;list;101,205,... -> libri nell'ordine richiesto, poi NOT_FOUND;id,id se mancano
                             String[] booksIdList = parts[2].split(",");
 
                             List<Integer> bookIds = Arrays.stream(booksIdList)
                                     .map(String::trim) // Rimuove spazi bianchi (utile in caso ci siano " 101, 205")
+                                    .filter(id -> !id.isEmpty())
                                     .map(Integer::parseInt) // Converte ogni Stringa in Integer
                                     .toList(); // Raccoglie gli Integer in una List
-                            List<Book> books = bookDAO.getBooks(bookIds);
+                            // il database legge solo i libri che non sono già in cache
+                            Map<Integer, String> cached = new HashMap<>();
+                            List<Integer> toLoad = new ArrayList<>();
+                            for (int id : bookIds) {
+                                String record = out instanceof TextResponseWriter ? bookRecords.get(id, true) : null;
+                                if (record != null) {
+                                    cached.put(id, record);
+                                } else {
+                                    toLoad.add(id);
+                                }
+                            }
+                            Map<Integer, Book> books = toLoad.isEmpty() ? Map.of() : bookDAO.getBooksById(toLoad);
+
+                            List<String> missing = new ArrayList<>();
+                            out.beginList();
+                            for (int id : bookIds) {
+                                Book book = books.get(id);
+                                String record = cached.get(id);
+                                if (record != null) {
+                                    ((TextResponseWriter) out).rawRecord(record);
+                                } else if (book != null) {
+                                    writeBook(out, book, true);
+                                } else {
+                                    missing.add(Integer.toString(id));
+                                }
+                            }
+                            if (!missing.isEmpty()) {
+                                out.beginRecord();
+                                out.field("NOT_FOUND");
+                                out.field(String.join(",", missing));
+                                out.endRecord();
+                            }
+                            out.endList();
+                            return null;
                         }
-                        case "title": {
+                        case "title": { // get_book;title;testo[;token] -> libri, poi NEXT;token se ci sono altre pagine
                             //Book book = bookDAO.getBook(parts[2]);
-                            List<Book> booksObj = bookDAO.getBooks(parts[2]);
-                            //logger.log(booksObj.toString());
                             //logger.log(book.toString());
                             //List<String> authors = book.getAuthors();
                             //String authorsString = String.join(", ", authors);
                             // TODO: valutare l'utilizzo di book.toString() in base a cosa è più comodo
-                            StringBuilder books = new StringBuilder();
-                            for (Book book : booksObj) {
-                                List<String> authors = book.getAuthors();
-                                String authorsString = String.join(", ", authors);
-                                String encodedDesc = Base64.getEncoder().encodeToString(
-                                        book.getDescription().getBytes(StandardCharsets.UTF_8)
-                                );
-                                books.append(String.join(SEPARATOR, Integer.toString(book.getId()), book.getTitle(), authorsString, Integer.toString(book.getPublicationYear()), book.getPublisher(), book.getCategory(), book.getCoverImageUrl(), encodedDesc));
-                                books.append("|");
+                            if (parts.length < 3) return ERROR_MESSAGE;
+                            BookDAO.Keyset after = null;
+                            if (parts.length > 3 && !isLegacyOffset(parts[3])) {
+                                after = decodeCursor(parts[3]);
+                                if (after == null) return INVALID_CURSOR;
                             }
-
-                            return books.toString();
+                            Book[] last = new Book[1];
+                            out.beginList();
+                            int found = bookDAO.forEachBook(parts[2], after, PAGE_SIZE, book -> {
+                                writeBook(out, book, true); // ogni libro viene scritto appena letto
+                                last[0] = book;
+                            });
+                            writeNextCursor(out, found, last[0]);
+                            out.endList();
+                            return null;
                         }
                         /* case "author": { // filtro autore-anno TODO: ordinamento asc/desc, poi farò
                             boolean b = !((parts[3]).equalsIgnoreCase("ASC") || (parts[3]).equalsIgnoreCase("DESC"));
@@ -154,74 +430,62 @@ public class ServerFacade {
                         }*/
 
                         // -----------------------------    =^.^=   --------------------------
-                        case "author": {
+                        case "author": { // get_book;author;nome[;token] -> come title, in ordine di anno decrescente
                             if (parts.length < 3) return ERROR_MESSAGE;
 
                             String authorName = parts[2];
 
-                            // Leggiamo l'offset dal client (parts[3]), se non c'è mettiamo 0
-                            int offset = 0;
-                            if (parts.length > 3) {
-                                try {
-                                    offset = Integer.parseInt(parts[3]);
-                                } catch (NumberFormatException e) {
-                                    offset = 0; // Fallback in caso di errore nel numero
-                                }
+                            // i client precedenti inviano un offset numerico (parts[3]): pagina con OFFSET, senza token
+                            if (parts.length > 3 && isLegacyOffset(parts[3]) && Integer.parseInt(parts[3]) > 0) {
+                                out.beginList();
+                                int found = bookDAO.forEachAuthorBook(authorName, PAGE_SIZE, Integer.parseInt(parts[3]),
+                                        book -> writeBook(out, book, true));
+                                out.endList();
+                                return found == 0 ? "NOT_FOUND" : null;
                             }
 
-                            int limit = 20; // Numero di libri per ogni "caricamento"
-
-                            // CHIAMATA CORRETTA: Passiamo i 3 parametri richiesti dal nuovo BookDAO
-                            List<Book> booksObj = bookDAO.getAuthorBooks(authorName, limit, offset);
-
-                            if (booksObj == null || booksObj.isEmpty()) {
-                                return "NOT_FOUND";
+                            BookDAO.Keyset after = null;
+                            if (parts.length > 3 && !isLegacyOffset(parts[3])) {
+                                after = decodeCursor(parts[3]);
+                                if (after == null) return INVALID_CURSOR;
                             }
-
-                            StringBuilder books = new StringBuilder();
-                            for (Book book : booksObj) {
-                                List<String> authors = book.getAuthors();
-                                String authorsString = String.join(", ", authors);
-
-                                // Codifica descrizione per evitare conflitti con il separatore ";"
-                                String encodedDesc = "";
-                                if (book.getDescription() != null) {
-                                    encodedDesc = Base64.getEncoder().encodeToString(
-                                            book.getDescription().getBytes(StandardCharsets.UTF_8)
-                                    );
-                                }
-
-                                books.append(String.join(SEPARATOR,
-                                        Integer.toString(book.getId()),
-                                        book.getTitle(),
-                                        authorsString,
-                                        Integer.toString(book.getPublicationYear()),
-                                        book.getPublisher(),
-                                        book.getCategory(),
-                                        book.getCoverImageUrl(),
-                                        encodedDesc));
-                                books.append("|");
+                            Book[] last = new Book[1];
+                            out.beginList();
+                            int found = bookDAO.forEachAuthorBook(authorName, after, PAGE_SIZE, book -> {
+                                writeBook(out, book, true); // descrizione codificata per evitare conflitti con il separatore ";"
+                                last[0] = book;
+                            });
+                            writeNextCursor(out, found, last[0]);
+                            out.endList();
+
+                            if (found == 0) {
+                                return "NOT_FOUND";
                             }
-                            return books.toString();
+                            return null;
                         }
 
                         case "authors": { // ricerca autori di un libro
                             List<String> authors = bookDAO.getBookAuthors(Integer.parseInt(parts[2]));
                             // , anziché ; perché è una lista di elementi e non più elementi differenti
-                            return String.join(",", authors);
+                            out.beginRecord();
+                            out.field(authors, ",");
+                            out.endRecord();
+                            return null;
                         }
                         case "top": { // top inteso come i 20 libri più frequenti nelle librerie
-                            List<Book> booksObj = bookDAO.getBooks(parts[2], Integer.parseInt(parts[3]));
-                            //logger.log(booksObj.toString());
-                            StringBuilder books = new StringBuilder();
-                            for (Book book : booksObj) {
-                                List<String> authors = book.getAuthors();
-                                String authorsString = String.join(", ", authors);
-                                books.append(String.join(SEPARATOR, Integer.toString(book.getId()), book.getTitle(), authorsString, Integer.toString(book.getPublicationYear()), book.getPublisher(), book.getCategory(), book.getCoverImageUrl()));
-                                books.append("|");
-                                // logger.log(book.toString());
+                            int limit = Math.max(0, Integer.parseInt(parts[3]));
+                            // per un genere: libri a caso dal campione in memoria, caricati per ID senza ordinamenti sul database
+                            List<Integer> sample = parts[2].equals("none") ? null : categorySamples.sample(parts[2], limit == 0 ? 20 : limit);
+                            out.beginList();
+                            if (sample != null) {
+                                for (Book book : bookDAO.getBooks(sample)) {
+                                    writeBook(out, book, false);
+                                }
+                            } else {
+                                bookDAO.forEachBook(parts[2], limit, book -> writeBook(out, book, false));
                             }
-                            return books.toString();
+                            out.endList();
+                            return null;
 
                             /*switch (parts[2]) {
                                 case "general": {
@@ -264,33 +528,32 @@ public class ServerFacade {
                     if (parts.length < 3) return ERROR_MESSAGE;
                     switch (parts[1]) {
                         case "id": {
-                            Library library = libraryDAO.getLibrary(Integer.parseInt(parts[2]));
-                            List<Integer> bookIdIntegers = library.getBookIds();
-                            String bookIds = bookIdIntegers.stream() // 1. Create a Stream<Integer>
-                                    .map(String::valueOf)   // 2. Map each Integer to a String
-                                    .collect(Collectors.joining(",")); // 3. Collect the Strings, joining them with a comma
-                            return String.join(SEPARATOR, Integer.toString(library.getId()), library.getName(), library.getUserId(), bookIds);
+                            Library library = libraryDAO.getLibrarySummary(Integer.parseInt(parts[2]));
+                            if (library == null) return "NOT_FOUND";
+                            writeLibrary(out, library);
+                            return null;
                         }
                         case "name": {
                             if (parts.length < 4) return ERROR_MESSAGE;
-                            Library library = libraryDAO.getLibrary(parts[2], parts[3]);
-                            List<Integer> bookIdIntegers = library.getBookIds();
-                            String bookIds = bookIdIntegers.stream() // 1. Create a Stream<Integer>
-                                    .map(String::valueOf)   // 2. Map each Integer to a String
-                                    .collect(Collectors.joining(",")); // 3. Collect the Strings, joining them with a comma
-                            return String.join(SEPARATOR, Integer.toString(library.getId()), library.getName(), library.getUserId(), bookIds);
+                            Library library = libraryDAO.getLibrarySummary(parts[2], parts[3]);
+                            if (library == null) return "NOT_FOUND";
+                            writeLibrary(out, library);
+                            return null;
                         }
                         default:
                             return "UNKNOW_SEARCH_TYPE";
                     }
                 case "get_user_libraries": {
                     if (parts.length < 2) return ERROR_MESSAGE;
-                    List<Library> libraries = libraryDAO.getLibraries(parts[1]);
-                    String libraryIds = libraries.stream()
+                    List<Library> libraries = libraryDAO.getLibrarySummaries(parts[1]);
+                    List<String> libraryIds = libraries.stream()
                             .map(Library::getId)        // 1. Mappa ogni oggetto Library al suo ID (che assumiamo sia un Integer o Long)
                             .map(String::valueOf)       // 2. Converte l'ID numerico in String
-                            .collect(Collectors.joining(",")); // 3. Unisce tutte le Stringhe con la virgola come delimitatore
-                    return libraryIds; // restituisco solo gli id (o i nomi, nicho cosa preferisci?) per comodità, poi verranno fatte richieste a parte lato client per le singole librerie
+                            .toList();
+                    out.beginRecord();
+                    out.field(libraryIds, ","); // 3. Unisce tutte le Stringhe con la virgola come delimitatore
+                    out.endRecord();
+                    return null; // restituisco solo gli id (o i nomi, nicho cosa preferisci?) per comodità, poi verranno fatte richieste a parte lato client per le singole librerie
                 }
                 /*case "add_user":
                     if (parts.length < 7) { return "ERROR;missing_args"; }
@@ -308,7 +571,7 @@ public class ServerFacade {
                 case "remove_library": {
                     if (parts.length < 2) return ERROR_MESSAGE;
                     int lib_id = Integer.parseInt(parts[1]);
-                    Library library = libraryDAO.getLibrary(lib_id);
+                    Library library = libraryDAO.getLibrarySummary(lib_id);
                     boolean ok = libraryDAO.removeLibrary(library);
                     return ok ? "REMOVE_LIBRARY" + SEPARATOR + "OK" : "REMOVE_LIBRARY" + SEPARATOR + "FAIL";
                 }
@@ -316,16 +579,21 @@ public class ServerFacade {
                     // opzione 1: method, lib_name, username, book_id
                     Book book;
                     Library library;
+                    CompletableFuture<Book> bookTask;
+                    CompletableFuture<Library> libraryTask;
                     if (parts.length < 4) {
                         // opzione 2: method, lib_id, book_id
                         if (parts.length == 3) {
-                            book = bookDAO.getBook(Integer.parseInt(parts[2]));
-                            library = libraryDAO.getLibrary(Integer.parseInt(parts[1]));
+                            bookTask = FanOut.fork(() -> bookDAO.getBook(Integer.parseInt(parts[2])));
+                            libraryTask = FanOut.fork(() -> libraryDAO.getLibrarySummary(Integer.parseInt(parts[1])));
                         } else return ERROR_MESSAGE;
                     } else {
-                        book = bookDAO.getBook(Integer.parseInt(parts[3]));
-                        library = libraryDAO.getLibrary(parts[1], parts[2]);
+                        bookTask = FanOut.fork(() -> bookDAO.getBook(Integer.parseInt(parts[3])));
+                        libraryTask = FanOut.fork(() -> libraryDAO.getLibrarySummary(parts[1], parts[2]));
                     }
+                    FanOut.joinAll(bookTask, libraryTask); // libro e libreria letti in parallelo
+                    book = FanOut.join(bookTask);
+                    library = FanOut.join(libraryTask);
                     boolean ok = libraryDAO.addBook(book, library);
                     return ok ? "ADD_BOOK_TO_LIBRARY" + SEPARATOR + "OK" : "ADD_BOOK_TO_LIBRARY" + SEPARATOR + "FAIL";
                 }
@@ -333,74 +601,41 @@ public class ServerFacade {
                     // opzione 1: method, lib_name, username, book_id
                     Book book;
                     Library library;
+                    CompletableFuture<Book> bookTask;
+                    CompletableFuture<Library> libraryTask;
                     if (parts.length < 4) {
                         // opzione 2: method, lib_id, book_id
                         if (parts.length == 3) {
-                            book = bookDAO.getBook(Integer.parseInt(parts[2]));
-                            library = libraryDAO.getLibrary(Integer.parseInt(parts[1]));
+                            bookTask = FanOut.fork(() -> bookDAO.getBook(Integer.parseInt(parts[2])));
+                            libraryTask = FanOut.fork(() -> libraryDAO.getLibrarySummary(Integer.parseInt(parts[1])));
                         } else return ERROR_MESSAGE;
                     } else {
-                        book = bookDAO.getBook(Integer.parseInt(parts[3]));
-                        library = libraryDAO.getLibrary(parts[1], parts[2]);
+                        bookTask = FanOut.fork(() -> bookDAO.getBook(Integer.parseInt(parts[3])));
+                        libraryTask = FanOut.fork(() -> libraryDAO.getLibrarySummary(parts[1], parts[2]));
                     }
+                    FanOut.joinAll(bookTask, libraryTask); // libro e libreria letti in parallelo
+                    book = FanOut.join(bookTask);
+                    library = FanOut.join(libraryTask);
                     boolean ok = libraryDAO.removeBook(book, library);
                     return ok ? "REMOVE_BOOK_FROM_LIBRARY" + SEPARATOR + "OK" : "REMOVE_BOOK_FROM_LIBRARY" + SEPARATOR + "FAIL";
                 }
                 case "get_book_reviews": {
                     if (parts.length < 2) return ERROR_MESSAGE;
-                    List<Rating> book_ratings = ratingDAO.getRatings(Integer.parseInt(parts[1]));
-                    StringBuilder ratings = new StringBuilder();
-                    for (Rating rating : book_ratings) {
-                        // Gestione nota null o vuota per evitare crash
-                        String noteToEncode = (rating.getNotes() == null) ? "" : rating.getNotes();
-
-                        // Codifichiamo in Base64 per l'invio sul socket (evita che i ';' nella nota rompano il parsing)
-                        String encodedNote = Base64.getEncoder().encodeToString(
-                                noteToEncode.getBytes(StandardCharsets.UTF_8)
-                        );
-
-                        ratings.append(String.join(SEPARATOR,
-                                rating.getUserId(),
-                                rating.getBookId(),
-                                Integer.toString(rating.getStyle()),
-                                Integer.toString(rating.getContent()),
-                                Integer.toString(rating.getEnjoyment()),
-                                Integer.toString(rating.getOriginality()),
-                                Integer.toString(rating.getEdition()),
-                                Integer.toString(rating.getFinalScore()),
-                                encodedNote));
-                        ratings.append("|");
-                    }
-                    return ratings.toString();
+                    out.beginList();
+                    ratingDAO.forEachRating(Integer.parseInt(parts[1]), rating -> writeRating(out, rating));
+                    out.endList();
+                    return null;
                 }
 
                 case "get_user_reviews": {
                     if (parts.length < 2) return ERROR_MESSAGE;
                     String username = parts[1];
-                    List<Rating> user_ratings = ratingDAO.getRatings(username);
-
-                    if (user_ratings.isEmpty()) return "NO_REVIEWS";
-
-                    StringBuilder sb = new StringBuilder();
-                    for (Rating rating : user_ratings) {
-                        String noteToEncode = (rating.getNotes() == null) ? "" : rating.getNotes();
-                        String encodedNote = Base64.getEncoder().encodeToString(
-                                noteToEncode.getBytes(StandardCharsets.UTF_8)
-                        );
-
-                        sb.append(String.join(SEPARATOR,
-                                rating.getUserId(),
-                                rating.getBookId(),
-                                Integer.toString(rating.getStyle()),
-                                Integer.toString(rating.getContent()),
-                                Integer.toString(rating.getEnjoyment()),
-                                Integer.toString(rating.getOriginality()),
-                                Integer.toString(rating.getEdition()),
-                                Integer.toString(rating.getFinalScore()),
-                                encodedNote));
-                        sb.append("|");
-                    }
-                    return sb.toString();
+                    out.beginList();
+                    int found = ratingDAO.forEachRating(username, rating -> writeRating(out, rating));
+                    out.endList();
+
+                    if (found == 0) return "NO_REVIEWS";
+                    return null;
                 }
 
                 case "add_book_review": {
@@ -464,14 +699,16 @@ public class ServerFacade {
                     if (parts.length < 2) return ERROR_MESSAGE;
                     List<Recommendation> recommendations = recommendationDAO.getRecommendations(Integer.parseInt(parts[1]));
                     if (recommendations.isEmpty()) return "NO_RECOMMENDATIONS";
-                    return formatRecommendationList(recommendations);
+                    writeRecommendations(out, recommendations);
+                    return null;
                 }
 
                 case "get_advices_made_by_user": { // Consigli creati dall'utente
                     if (parts.length < 2) return ERROR_MESSAGE;
                     List<Recommendation> made = recommendationDAO.getRecommendationsMadeBy(parts[1]);
                     if (made.isEmpty()) return "NO_RECOMMENDATIONS_MADE";
-                    return formatRecommendationList(made);
+                    writeRecommendations(out, made);
+                    return null;
                 }
 
                 case "add_book_advice": {
@@ -501,6 +738,11 @@ public class ServerFacade {
                     boolean ok = recommendationDAO.removeRecommendations(username, bookId);
                     return ok ? "REMOVE_BOOK_ADVICE" + SEPARATOR + "OK" : "REMOVE_BOOK_ADVICE" + SEPARATOR + "FAIL";
                 }
+                case Batch.COMMAND: { // batch;Base64(richiesta);... (vedi protocol.Batch)
+                    List<String> requests = Batch.decode(parts);
+                    if (requests.size() > Batch.MAX_REQUESTS) return "ERROR" + SEPARATOR + "batch_too_large";
+                    return Batch.encode(runBatch(requests, client));
+                }
                 default:
                     return "UNKNOWN_COMMAND";
             }
@@ -0,0 +1,160 @@
+package ONA.booksrecommender.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Contatori del server, aggiornati dai thread delle connessioni e consultabili dal menu di App.
+ */
+public class ServerMetrics {
+    private static final com.sun.management.ThreadMXBean THREADS = allocationCounter();
+
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final LongAdder acceptedConnections = new LongAdder();
+    private final LongAdder rejectedConnections = new LongAdder();
+    private final LongAdder reapedConnections = new LongAdder();
+    private final LongAdder completedRequests = new LongAdder();
+    private final LongAdder busyRequests = new LongAdder();
+    private final LongAdder timedOutRequests = new LongAdder();
+    private final LongAdder rateLimitedRequests = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder allocationSamples = new LongAdder();
+    private final LongAdder compressedResponses = new LongAdder();
+    private final LongAdder compressionBytesIn = new LongAdder();
+    private final LongAdder compressionBytesOut = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+    private final Map<String, LongSupplier> gauges = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public void connectionAccepted() {
+        acceptedConnections.increment();
+        activeConnections.incrementAndGet();
+    }
+
+    public void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    public void connectionRejected() {
+        rejectedConnections.increment();
+    }
+
+    public void connectionReaped() {
+        reapedConnections.increment();
+    }
+
+    public void requestCompleted() {
+        completedRequests.increment();
+    }
+
+    public void requestRejectedBusy() {
+        busyRequests.increment();
+    }
+
+    public void requestTimedOut() {
+        timedOutRequests.increment();
+    }
+
+    public void requestRateLimited() {
+        rateLimitedRequests.increment();
+    }
+
+    /**
+     * Byte allocati finora dal thread corrente, oppure -1 se la JVM non lo misura.
+     */
+    public long currentThreadAllocatedBytes() {
+        return THREADS != null ? THREADS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    public void requestAllocated(long bytes) {
+        allocatedBytes.add(bytes);
+        allocationSamples.increment();
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        return null;
+    }
+
+    public void responseCompressed(long bytesIn, long bytesOut, long nanos) {
+        compressedResponses.increment();
+        compressionBytesIn.add(bytesIn);
+        compressionBytesOut.add(bytesOut);
+        compressionNanos.add(nanos);
+    }
+
+    /**
+     * Registra un valore istantaneo (es. profondità di una coda) da mostrare nel riepilogo.
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public int getActiveConnections() { return activeConnections.get(); }
+
+    public long getAcceptedConnections() { return acceptedConnections.sum(); }
+
+    public long getRejectedConnections() { return rejectedConnections.sum(); }
+
+    public long getReapedConnections() { return reapedConnections.sum(); }
+
+    public long getCompletedRequests() { return completedRequests.sum(); }
+
+    public long getBusyRequests() { return busyRequests.sum(); }
+
+    public long getTimedOutRequests() { return timedOutRequests.sum(); }
+
+    public long getRateLimitedRequests() { return rateLimitedRequests.sum(); }
+
+    /**
+     * Memoria allocata in media dal worker per eseguire una richiesta (0 se non misurata).
+     */
+    public long getAllocatedBytesPerRequest() {
+        long samples = allocationSamples.sum();
+        return samples == 0 ? 0 : allocatedBytes.sum() / samples;
+    }
+
+    public long getCompressedResponses() { return compressedResponses.sum(); }
+
+    /**
+     * Byte compressi / byte originali delle risposte compresse (1.0 se nessuna).
+     */
+    public double getCompressionRatio() {
+        long in = compressionBytesIn.sum();
+        return in == 0 ? 1.0 : (double) compressionBytesOut.sum() / in;
+    }
+
+    public double getCompressionMillis() { return compressionNanos.sum() / 1_000_000.0; }
+
+    /**
+     * Restituisce un riepilogo leggibile di tutti i contatori.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Connessioni attive: ").append(getActiveConnections()).append("\n");
+        sb.append("Connessioni accettate: ").append(getAcceptedConnections()).append("\n");
+        sb.append("Connessioni rifiutate: ").append(getRejectedConnections()).append("\n");
+        sb.append("Connessioni chiuse per inattività: ").append(getReapedConnections()).append("\n");
+        sb.append("Richieste completate: ").append(getCompletedRequests()).append("\n");
+        sb.append("Richieste rifiutate (BUSY): ").append(getBusyRequests()).append("\n");
+        sb.append("Richieste oltre la scadenza: ").append(getTimedOutRequests()).append("\n");
+        sb.append("Richieste rifiutate (rate limit): ").append(getRateLimitedRequests()).append("\n");
+        sb.append("Memoria allocata per richiesta: ").append(getAllocatedBytesPerRequest() / 1024).append(" KB\n");
+        sb.append("Risposte compresse: ").append(getCompressedResponses())
+                .append(String.format(" (rapporto %.2f, %.1f ms di CPU)", getCompressionRatio(), getCompressionMillis()));
+        synchronized (gauges) {
+            for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+                sb.append("\n").append(gauge.getKey()).append(": ").append(gauge.getValue().getAsLong());
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,508 @@
+package ONA.booksrecommender.server.database;
+
+import ONA.booksrecommender.managers.ThreadManager;
+import ONA.booksrecommender.server.ServerMetrics;
+import ONA.booksrecommender.server.errors.DeadlineExceededException;
+import ONA.booksrecommender.utils.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool di connessioni JDBC condiviso dai DAO.
+ * <ul>
+ * <li>il prestito è per thread e rientrante: le query annidate dello stesso thread (es. un DAO che
+ * chiama un altro DAO, o una transazione) usano la stessa connessione, che torna al pool quando
+ * l'ultimo handle viene chiuso</li>
+ * <li>una connessione inattiva da più di un secondo viene validata prima del prestito</li>
+ * <li>alla restituzione una transazione lasciata aperta viene annullata e l'autocommit ripristinato</li>
+ * <li>le connessioni tenute oltre la soglia di leak vengono segnalate nel log con lo stack del prestito</li>
+ * <li>ogni connessione tiene una cache LRU dei PreparedStatement per testo SQL (vedi prepare)</li>
+ * </ul>
+ * Con la pool piena borrow() attende fino al timeout di prestito (o alla scadenza della richiesta).
+ */
+public class ConnectionPool implements AutoCloseable {
+    private static final ThreadLocal<Hold> CURRENT = new ThreadLocal<>();
+    private static final long VALIDATE_AFTER_IDLE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(5); // oltre il minimo
+
+    /**
+     * Apre una nuova connessione fisica (es. Database.createConnection).
+     */
+    public interface ConnectionFactory {
+        Connection open() throws SQLException;
+    }
+
+    // connessione fisica con la sua cache di statement liberi, dal meno al più usato di recente
+    private static final class Physical {
+        private final Connection connection;
+        private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true);
+
+        private Physical(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    // connessione fisica in prestito; refs conta i thread che la usano (vedi share)
+    public static final class Lease {
+        private final ConnectionPool pool;
+        private final Physical physical;
+        private final AtomicInteger refs = new AtomicInteger(1);
+        private final long borrowedAtNanos = System.nanoTime();
+        private final Thread borrower = Thread.currentThread();
+        private final Throwable borrowSite;
+        private volatile boolean leakReported;
+
+        private Lease(ConnectionPool pool, Physical physical, boolean traceBorrow) {
+            this.pool = pool;
+            this.physical = physical;
+            this.borrowSite = traceBorrow ? new Throwable("Connection borrowed here") : null;
+        }
+
+        private void unref() {
+            if (refs.decrementAndGet() == 0) {
+                pool.giveBack(this);
+            }
+        }
+    }
+
+    // prestito visto da un thread: depth conta gli handle aperti da quel thread
+    private static final class Hold {
+        private final Lease lease;
+        private int depth = 1;
+
+        private Hold(Lease lease) {
+            this.lease = lease;
+        }
+    }
+
+    private record Idle(Physical physical, long sinceNanos) {}
+
+    private final ConnectionFactory factory;
+    private final Logger logger;
+    private final int minSize;
+    private final int maxSize;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final int statementCacheSize;
+    private final Semaphore permits;
+    private final Deque<Idle> idle = new ConcurrentLinkedDeque<>();
+    private final Set<Lease> leased = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder leaks = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed;
+
+    /**
+     * @param statementCacheSize statement conservati per connessione; 0 disattiva la cache
+     */
+    public ConnectionPool(ConnectionFactory factory, Logger logger, int minSize, int maxSize,
+                          long borrowTimeoutMillis, long leakThresholdMillis, int statementCacheSize) throws SQLException {
+        this.factory = factory;
+        this.logger = logger;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.min(Math.max(0, minSize), this.maxSize);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.statementCacheSize = Math.max(0, statementCacheSize);
+        this.permits = new Semaphore(this.maxSize, true);
+        for (int i = 0; i < this.minSize; i++) {
+            idle.push(new Idle(new Physical(factory.open()), System.nanoTime()));
+        }
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(new ThreadManager("ConnectionPool", true));
+        long period = leakThresholdMillis > 0 ? Math.max(1000, leakThresholdMillis / 2) : 30_000;
+        housekeeper.scheduleAtFixedRate(this::housekeeping, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registra nel riepilogo del server utilizzo, attese, validazioni fallite e leak del pool.
+     */
+    public void registerMetrics(ServerMetrics metrics) {
+        metrics.registerGauge("Connessioni DB in uso", leased::size);
+        metrics.registerGauge("Connessioni DB inattive", idle::size);
+        metrics.registerGauge("Thread in attesa di una connessione DB", waiting::get);
+        metrics.registerGauge("Attesa media connessione DB (µs)", this::getAverageWaitMicros);
+        metrics.registerGauge("Attesa massima connessione DB (ms)", () -> maxWaitNanos.get() / 1_000_000);
+        metrics.registerGauge("Connessioni DB non valide scartate", invalid::sum);
+        metrics.registerGauge("Possibili leak di connessioni DB", leaks::sum);
+        if (statementCacheSize > 0) {
+            metrics.registerGauge("Statement SQL riusati dalla cache", statementHits::sum);
+            metrics.registerGauge("Statement SQL preparati", statementMisses::sum);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getAverageWaitMicros() {
+        long count = borrows.sum();
+        return count == 0 ? 0 : waitNanos.sum() / count / 1000;
+    }
+
+    /**
+     * Prende in prestito una connessione per il thread corrente; va chiusa (try-with-resources)
+     * per restituirla. Se il thread ne ha già una dello stesso pool restituisce un nuovo handle
+     * della stessa connessione.
+     */
+    public Connection borrow() throws SQLException {
+        Hold hold = CURRENT.get();
+        if (hold != null && hold.lease.pool == this) {
+            hold.depth++;
+            return handle(hold);
+        }
+        if (hold != null) {
+            throw new SQLException("Thread already holds a connection of another pool");
+        }
+        hold = new Hold(acquire());
+        CURRENT.set(hold);
+        return handle(hold);
+    }
+
+    /**
+     * Connessione del thread corrente da condividere con un ramo di FanOut, oppure null.
+     * Il ramo la usa con adopt/leave: così un thread che tiene già una connessione non resta
+     * in attesa di altre connessioni per i propri rami (che altrimenti potrebbero esaurire il pool).
+     */
+    public static Lease share() {
+        Hold hold = CURRENT.get();
+        if (hold == null) {
+            return null;
+        }
+        hold.lease.refs.incrementAndGet();
+        return hold.lease;
+    }
+
+    /**
+     * Il thread corrente (un ramo di FanOut) usa la connessione ottenuta con share().
+     */
+    public static void adopt(Lease lease) {
+        CURRENT.set(new Hold(lease));
+    }
+
+    /**
+     * Fine del ramo: rilascia il riferimento preso con share() (vedi adopt).
+     */
+    public static void leave(Lease lease) {
+        Hold hold = CURRENT.get();
+        if (hold != null && hold.lease == lease) {
+            CURRENT.remove();
+        }
+        lease.unref();
+    }
+
+    /**
+     * Riferimento preso con share() ma mai usato (ramo annullato prima di partire).
+     */
+    public static void discard(Lease lease) {
+        lease.unref();
+    }
+
+    /**
+     * Connessione che inoltra ogni chiamata a quella presa in prestito dal thread corrente,
+     * per i DAO che la usano mentre hanno uno statement aperto (es. createArrayOf).
+     */
+    public Connection current() {
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> {
+                    Hold hold = CURRENT.get();
+                    if (hold == null || hold.lease.pool != this) {
+                        throw new SQLException("No connection borrowed by " + Thread.currentThread().getName());
+                    }
+                    return invoke(hold.lease.physical.connection, method, args);
+                });
+    }
+
+    /**
+     * Statement per sql sulla connessione del thread corrente, presa in prestito e restituita
+     * alla chiusura dello statement. Se la connessione ha in cache uno statement libero con lo
+     * stesso testo lo riusa; alla chiusura lo statement torna in cache (senza parametri, batch
+     * e timeout) invece di essere chiuso. Uno statement in uso non è in cache, quindi due rami
+     * che condividono la connessione non ricevono mai lo stesso.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        Connection handle = borrow();
+        try {
+            Physical physical = CURRENT.get().lease.physical;
+            PreparedStatement stmt = takeStatement(physical, sql);
+            if (stmt == null) {
+                statementMisses.increment();
+                stmt = physical.connection.prepareStatement(sql);
+            } else {
+                statementHits.increment();
+            }
+            return closingConnection(stmt, sql, physical, handle);
+        } catch (SQLException | RuntimeException e) {
+            handle.close();
+            throw e;
+        }
+    }
+
+    private PreparedStatement closingConnection(PreparedStatement stmt, String sql, Physical physical, Connection handle) {
+        AtomicBoolean open = new AtomicBoolean(true);
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "close" -> {
+                        if (open.compareAndSet(true, false)) {
+                            try {
+                                returnStatement(physical, sql, stmt);
+                            } finally {
+                                handle.close();
+                            }
+                        }
+                        yield null;
+                    }
+                    case "isClosed" -> !open.get() || stmt.isClosed();
+                    default -> invoke(stmt, method, args);
+                });
+    }
+
+    private PreparedStatement takeStatement(Physical physical, String sql) {
+        if (statementCacheSize == 0) {
+            return null;
+        }
+        synchronized (physical) {
+            return physical.statements.remove(sql);
+        }
+    }
+
+    // lo statement torna in cache pulito; il meno usato di recente viene chiuso se la cache è piena
+    private void returnStatement(Physical physical, String sql, PreparedStatement stmt) throws SQLException {
+        if (statementCacheSize == 0 || closed) {
+            stmt.close();
+            return;
+        }
+        try {
+            stmt.clearParameters();
+            stmt.clearBatch();
+            stmt.setQueryTimeout(0);
+        } catch (SQLException e) {
+            stmt.close();
+            return;
+        }
+        PreparedStatement evicted = null;
+        synchronized (physical) {
+            if (physical.statements.containsKey(sql)) {
+                evicted = stmt; // ne è già tornato uno uguale (rami sulla stessa connessione)
+            } else {
+                physical.statements.put(sql, stmt);
+                if (physical.statements.size() > statementCacheSize) {
+                    Iterator<PreparedStatement> eldest = physical.statements.values().iterator();
+                    evicted = eldest.next();
+                    eldest.remove();
+                }
+            }
+        }
+        if (evicted != null) {
+            evicted.close();
+        }
+    }
+
+    private Connection handle(Hold hold) {
+        AtomicBoolean open = new AtomicBoolean(true);
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "close" -> {
+                        if (open.compareAndSet(true, false)) {
+                            release(hold);
+                        }
+                        yield null;
+                    }
+                    case "isClosed" -> !open.get() || hold.lease.physical.connection.isClosed();
+                    default -> {
+                        if (!open.get()) {
+                            throw new SQLException("Connection handle already closed");
+                        }
+                        yield invoke(hold.lease.physical.connection, method, args);
+                    }
+                });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void release(Hold hold) {
+        if (--hold.depth > 0) {
+            return;
+        }
+        if (CURRENT.get() == hold) {
+            CURRENT.remove();
+        }
+        hold.lease.unref();
+    }
+
+    private Lease acquire() throws SQLException {
+        long timeout = borrowTimeoutMillis;
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            timeout = Math.min(timeout, deadline.remainingMillis());
+        }
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                if (deadline != null && deadline.isExpired()) {
+                    throw new DeadlineExceededException();
+                }
+                throw new SQLTransientConnectionException("Connection pool exhausted (" + maxSize + " in use, waited " + timeout + " ms)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+        } finally {
+            waiting.decrementAndGet();
+        }
+        long waited = System.nanoTime() - start;
+        borrows.increment();
+        waitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+        try {
+            if (closed) {
+                throw new SQLException("Connection pool closed");
+            }
+            Lease lease = new Lease(this, takeIdle(), leakThresholdMillis > 0);
+            leased.add(lease);
+            return lease;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // l'ultima connessione restituita è la più probabilmente ancora valida
+    private Physical takeIdle() throws SQLException {
+        Idle candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            if (System.nanoTime() - candidate.sinceNanos() < VALIDATE_AFTER_IDLE_NANOS || isValid(candidate.physical().connection)) {
+                return candidate.physical();
+            }
+            invalid.increment();
+            closeQuietly(candidate.physical().connection);
+        }
+        return new Physical(factory.open());
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void giveBack(Lease lease) {
+        leased.remove(lease);
+        Connection connection = lease.physical.connection;
+        try {
+            if (closed || connection.isClosed()) {
+                closeQuietly(connection);
+                return;
+            }
+            if (!connection.getAutoCommit()) { // transazione lasciata aperta da un DAO
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            idle.push(new Idle(lease.physical, System.nanoTime()));
+        } catch (SQLException e) {
+            invalid.increment();
+            closeQuietly(connection);
+        } finally {
+            if (lease.leakReported) {
+                logger.log("Leaked connection returned after " + (System.nanoTime() - lease.borrowedAtNanos) / 1_000_000 + " ms");
+            }
+            permits.release();
+        }
+    }
+
+    // segnala i prestiti oltre la soglia e chiude le connessioni inattive da troppo tempo oltre il minimo
+    private void housekeeping() {
+        try {
+            long now = System.nanoTime();
+            if (leakThresholdMillis > 0) {
+                for (Lease lease : leased) {
+                    long heldMillis = (now - lease.borrowedAtNanos) / 1_000_000;
+                    if (heldMillis >= leakThresholdMillis && !lease.leakReported) {
+                        lease.leakReported = true;
+                        leaks.increment();
+                        logger.log("Possible connection leak: held for " + heldMillis + " ms by " + lease.borrower.getName()
+                                + (lease.borrowSite != null ? "\n" + stackTrace(lease.borrowSite) : ""));
+                    }
+                }
+            }
+            int surplus = idle.size() + leased.size() - minSize;
+            Iterator<Idle> oldestFirst = idle.descendingIterator();
+            while (surplus > 0 && oldestFirst.hasNext()) {
+                Idle candidate = oldestFirst.next();
+                if (now - candidate.sinceNanos() > IDLE_TIMEOUT_NANOS && idle.remove(candidate)) {
+                    closeQuietly(candidate.physical().connection);
+                    surplus--;
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.log("Connection pool housekeeping error: " + e.getMessage());
+        }
+    }
+
+    private static String stackTrace(Throwable site) {
+        StringBuilder sb = new StringBuilder();
+        for (StackTraceElement frame : site.getStackTrace()) {
+            if (!frame.getClassName().startsWith(ConnectionPool.class.getName()) && !frame.getClassName().startsWith("jdk.proxy")) {
+                sb.append("    at ").append(frame).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.log("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Chiude le connessioni inattive; quelle ancora in prestito vengono chiuse alla restituzione.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        housekeeper.shutdownNow();
+        Idle candidate;
+        while ((candidate = idle.pollFirst()) != null) {
+            closeQuietly(candidate.physical().connection);
+        }
+    }
+}
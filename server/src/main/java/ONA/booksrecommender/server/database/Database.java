@@ -4,11 +4,13 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
+import ONA.booksrecommender.server.ServerConfig;
 import ONA.booksrecommender.server.database.dao.*;
 import ONA.booksrecommender.utils.Logger;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Properties;
 
 public class Database implements AutoCloseable {
 
@@ -16,16 +18,33 @@ public class Database implements AutoCloseable {
             "jdbc:postgresql://aws-0-eu-central-1.pooler.supabase.com:6543/postgres?sslmode=require";
     private static final String USER = "postgres.bhklgkxycybbqhhdwphq";
     private static final String PASSWORD = "Cicci0n3";
+    // porta del pooler Supabase in modalità transazione: ogni transazione può finire su un backend
+    // diverso, quindi i prepared statement con nome lato server non sono utilizzabili
+    private static final String TRANSACTION_POOLER_PORT = ":6543/";
 
     private final Map<Class<? extends DAO>, DAO> daoMap = new HashMap<>();
+    private final ConnectionPool pool;
+    private final Properties connectionProperties = new Properties();
 
-    public Database(Logger logger) throws SQLException {
-        Connection conn = createConnection();
-        addDAO(new UserDAO(logger, conn));
-        addDAO(new BookDAO(logger, conn));
-        addDAO(new LibraryDAO(logger, conn, getDAO(BookDAO.class)));
-        addDAO(new RatingDAO(logger, conn, getDAO(BookDAO.class)));
-        addDAO(new RecommendationDAO(logger, conn));
+    public Database(Logger logger, ServerConfig config) throws SQLException {
+        connectionProperties.setProperty("user", USER);
+        connectionProperties.setProperty("password", PASSWORD);
+        // con la cache di statement lo stesso PreparedStatement viene eseguito molte volte e il driver,
+        // oltre prepareThreshold esecuzioni, lo preparerebbe lato server: dietro al pooler va disattivato
+        int prepareThreshold = config.getDbPrepareThreshold() >= 0 ? config.getDbPrepareThreshold()
+                : URL.contains(TRANSACTION_POOLER_PORT) ? 0 : 5;
+        connectionProperties.setProperty("prepareThreshold", Integer.toString(prepareThreshold));
+        this.pool = new ConnectionPool(this::createConnection, logger, config.getDbPoolMin(), config.getDbPoolMax(),
+                config.getDbBorrowTimeoutMillis(), config.getDbLeakThresholdMillis(), config.getDbStatementCacheSize());
+        addDAO(new UserDAO(logger, pool));
+        addDAO(new BookDAO(logger, pool));
+        addDAO(new LibraryDAO(logger, pool, getDAO(BookDAO.class)));
+        addDAO(new RatingDAO(logger, pool, getDAO(BookDAO.class)));
+        addDAO(new RecommendationDAO(logger, pool));
+    }
+
+    public ConnectionPool getPool() {
+        return pool;
     }
 
     private void addDAO(DAO dao) {
@@ -33,7 +52,7 @@ public class Database implements AutoCloseable {
     }
 
     public Connection createConnection() throws SQLException {
-        return DriverManager.getConnection(URL, USER, PASSWORD);
+        return DriverManager.getConnection(URL, connectionProperties);
     }
 
     @SuppressWarnings("unchecked")
@@ -46,5 +65,6 @@ public class Database implements AutoCloseable {
         for (DAO dao : daoMap.values()) {
             dao.close();
         }
+        pool.close();
     }
 }
\ No newline at end of file
@@ -0,0 +1,63 @@
+package ONA.booksrecommender.server.database;
+
+import ONA.booksrecommender.server.errors.DeadlineExceededException;
+
+/**
+ * Scadenza della richiesta in esecuzione sul thread corrente.
+ * RequestDispatcher la imposta prima di chiamare ServerFacade; i DAO la leggono in
+ * BaseDAO.prepare per impostare setQueryTimeout e per interrompere le richieste composte
+ * da più query quando il tempo è già finito.
+ */
+public final class Deadline {
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline after(long millis) {
+        return new Deadline(System.nanoTime() + millis * 1_000_000L);
+    }
+
+    /**
+     * Scadenza della richiesta corrente, oppure null se il thread non sta servendo una richiesta.
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    public static void set(Deadline deadline) {
+        CURRENT.set(deadline);
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Lancia DeadlineExceededException se la richiesta corrente è già scaduta.
+     */
+    public static void check() {
+        Deadline deadline = CURRENT.get();
+        if (deadline != null && deadline.isExpired()) {
+            throw new DeadlineExceededException();
+        }
+    }
+
+    public long remainingMillis() {
+        return Math.max(0, (expiresAtNanos - System.nanoTime()) / 1_000_000L);
+    }
+
+    public boolean isExpired() {
+        return System.nanoTime() - expiresAtNanos >= 0;
+    }
+
+    /**
+     * Timeout in secondi per PreparedStatement.setQueryTimeout, arrotondato per eccesso (minimo 1).
+     */
+    public int queryTimeoutSeconds() {
+        return (int) Math.max(1, (remainingMillis() + 999) / 1000);
+    }
+}
@@ -0,0 +1,112 @@
+package ONA.booksrecommender.server.database;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sotto-query indipendenti di una stessa richiesta eseguite in parallelo su virtual thread,
+ * così una richiesta composta dura quanto la query più lenta invece della somma di tutte.
+ * Ogni ramo eredita la Deadline del thread che lo avvia (e quindi il timeout delle query) e
+ * prende una propria connessione dal pool; se il thread che lo avvia ne tiene già una, il ramo
+ * usa quella (vedi ConnectionPool.share), così i rami non possono esaurire il pool.
+ * <p>
+ * Con joinAll il primo ramo che fallisce annulla gli altri: quelli non ancora partiti non
+ * vengono eseguiti, quelli già sul database terminano entro il timeout della richiesta e
+ * il loro risultato viene ignorato. I thread non vengono interrotti, perché l'interruzione
+ * di un virtual thread bloccato su un socket chiuderebbe la connessione al database.
+ */
+public final class FanOut {
+    private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("FanOut-", 0).factory());
+
+    private FanOut() {
+    }
+
+    /**
+     * Avvia task in parallelo al thread corrente.
+     */
+    public static <T> CompletableFuture<T> fork(Callable<T> task) {
+        Deadline deadline = Deadline.current();
+        ConnectionPool.Lease lease = ConnectionPool.share();
+        AtomicBoolean claimed = new AtomicBoolean(); // la connessione condivisa va rilasciata una sola volta
+        CompletableFuture<T> future = CompletableFuture.supplyAsync(() -> {
+            boolean adopted = lease != null && claimed.compareAndSet(false, true);
+            if (adopted) {
+                ConnectionPool.adopt(lease);
+            }
+            Deadline.set(deadline);
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                Deadline.clear();
+                if (adopted) {
+                    ConnectionPool.leave(lease);
+                }
+            }
+        }, EXECUTOR);
+        if (lease != null) {
+            future.whenComplete((result, error) -> {
+                if (claimed.compareAndSet(false, true)) { // annullato prima di partire
+                    ConnectionPool.discard(lease);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Attende tutti i rami; al primo errore annulla gli altri e rilancia l'eccezione del ramo
+     * (le eccezioni controllate arrivano avvolte in una CompletionException).
+     */
+    public static void joinAll(CompletableFuture<?>... tasks) {
+        CompletableFuture<Object> failed = new CompletableFuture<>();
+        for (CompletableFuture<?> task : tasks) {
+            task.whenComplete((result, error) -> {
+                if (error != null) {
+                    failed.completeExceptionally(error);
+                }
+            });
+        }
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(tasks), failed).join();
+        } catch (CompletionException | CancellationException e) {
+            cancelAll(tasks);
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Risultato di un ramo, con le stesse eccezioni di joinAll.
+     */
+    public static <T> T join(CompletableFuture<T> task) {
+        try {
+            return task.join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Annulla i rami non più necessari (es. il libro non esiste, inutile attenderne gli autori).
+     */
+    public static void cancelAll(CompletableFuture<?>... tasks) {
+        for (CompletableFuture<?> task : tasks) {
+            task.cancel(false);
+        }
+    }
+
+    private static RuntimeException unwrap(RuntimeException e) {
+        if (e instanceof CompletionException && e.getCause() instanceof RuntimeException cause) {
+            return cause;
+        }
+        return e;
+    }
+}
@@ -1,26 +1,56 @@
 package ONA.booksrecommender.server.database.dao;
 
+import ONA.booksrecommender.server.database.ConnectionPool;
+import ONA.booksrecommender.server.database.Deadline;
 import ONA.booksrecommender.utils.Logger;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
 
 public abstract class BaseDAO implements DAO {
-    protected Connection connection;
+    protected final ConnectionPool pool;
+    protected Connection connection; // la connessione presa in prestito dal thread corrente (vedi ConnectionPool.current)
     protected Logger logger;
 
-    public BaseDAO(Logger logger, Connection connection) {
+    public BaseDAO(Logger logger, ConnectionPool pool) {
         this.logger = logger;
-        this.connection = connection;
+        this.pool = pool;
+        this.connection = pool.current();
+    }
+
+    /**
+     * Prende in prestito una connessione per più operazioni (es. una transazione); le query
+     * preparate finché è aperta la usano tutte. Va chiusa per restituirla al pool.
+     */
+    protected Connection borrow() throws SQLException {
+        return pool.borrow();
+    }
+
+    /**
+     * Prepara la query con il timeout della richiesta corrente (vedi Deadline), su una connessione
+     * presa in prestito dal pool e restituita alla chiusura dello statement; lo statement può
+     * venire dalla cache della connessione (vedi ConnectionPool.prepare).
+     * Se la richiesta è già scaduta lancia DeadlineExceededException senza toccare il database:
+     * così una richiesta composta da più query si ferma al primo passo oltre la scadenza.
+     */
+    protected PreparedStatement prepare(String query) throws SQLException {
+        Deadline.check();
+        PreparedStatement stmt = pool.prepare(query);
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            try {
+                stmt.setQueryTimeout(deadline.queryTimeoutSeconds());
+            } catch (SQLException e) {
+                stmt.close();
+                throw e;
+            }
+        }
+        return stmt;
     }
 
     @Override
     public void close() {
-        try {
-            if (connection != null && !connection.isClosed())
-                connection.close();
-        } catch (SQLException e) {
-            logger.log("Errore durante la chiusura connessione: " + e.getMessage());
-        }
+        // le connessioni appartengono al pool, che viene chiuso da Database
     }
 }
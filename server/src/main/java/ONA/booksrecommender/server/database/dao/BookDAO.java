@@ -1,14 +1,22 @@
 package ONA.booksrecommender.server.database.dao;
 
 import ONA.booksrecommender.objects.Book;
+import ONA.booksrecommender.server.database.ConnectionPool;
 import ONA.booksrecommender.utils.Logger;
 
-import java.sql.Connection;
+import java.sql.Array;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 import java.net.URI;
 import java.net.http.HttpClient;
@@ -26,45 +34,66 @@ import java.io.IOException;
 public class BookDAO extends BaseDAO implements AutoCloseable {
     private HttpClient client;
 
-    public BookDAO(Logger logger, Connection connection) {
-        super(logger, connection);
+    public BookDAO(Logger logger, ConnectionPool pool) {
+        super(logger, pool);
         this.client = HttpClient.newHttpClient();
     }
 
+    /**
+     * Colonne di un libro completo: gli autori sono aggregati in un array e la copertina
+     * arriva da un LEFT JOIN, così un libro (o un elenco di libri) si legge con una sola query.
+     * Va usato come "SELECT " + BOOK_COLUMNS + " FROM books b " + BOOK_JOINS + "WHERE ...".
+     */
+    private static final String BOOK_COLUMNS =
+            "b.book_id, b.title, b.publish_year, b.publishers, b.category, b.description, au.authors, img.image_url";
+    private static final String BOOK_JOINS =
+            "LEFT JOIN LATERAL (SELECT array_agg(a.author_name) AS authors " +
+            "FROM book_authors ba JOIN authors a ON a.author_id = ba.author_id " +
+            "WHERE ba.book_id = b.book_id) au ON true " +
+            "LEFT JOIN LATERAL (SELECT bi.image_url FROM book_images bi " +
+            "WHERE bi.book_id = b.book_id LIMIT 1) img ON true ";
+
+    /**
+     * Query per una pagina di risultati: pageQuery seleziona le righe di books della pagina
+     * (con il proprio ORDER BY e LIMIT) e solo quelle vengono completate con autori e copertina.
+     * La pagina costa una sola query qualunque sia la sua dimensione, e le sottoquery su autori
+     * e copertine non vengono eseguite per le righe scartate dal LIMIT.
+     */
+    private static String pageOfBooks(String pageQuery, String orderBy) {
+        return "SELECT " + BOOK_COLUMNS + " FROM (" + pageQuery + ") b " + BOOK_JOINS + orderBy;
+    }
+
+    // libro completo dalla riga corrente di una query su BOOK_COLUMNS
+    private static Book readBook(ResultSet rs) throws SQLException {
+        List<String> authors = new ArrayList<>();
+        Array authorsArray = rs.getArray("authors");
+        if (authorsArray != null) {
+            authors.addAll(Arrays.asList((String[]) authorsArray.getArray()));
+            authorsArray.free();
+        }
+        String description = rs.getString("description");
+        return new Book(
+                rs.getInt("book_id"),
+                rs.getString("title"),
+                authors,
+                rs.getInt("publish_year"),
+                rs.getString("publishers"),
+                rs.getString("category"),
+                rs.getString("image_url"),
+                description == null ? "" : description
+        );
+    }
+
+    /**
+     * Libro con autori e copertina, letto con una sola query.
+     */
     public Book getBook(int id) {
-        String query = "SELECT * FROM books WHERE book_id = ?";
+        String query = "SELECT " + BOOK_COLUMNS + " FROM books b " + BOOK_JOINS + "WHERE b.book_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, id);
             try (ResultSet rs = stmt.executeQuery()) {
-                if (!rs.next()) {
-                    return null;
-                }
-
-                List<String> authors = getBookAuthors(rs.getInt("book_id"));
-
-                String imageUrl = getBookImageUrl(rs.getInt("book_id"));
-
-                String description = "";
-                try {
-                    description = rs.getString("description");
-                    if (description == null) {
-                        description = "";
-                    }
-                } catch (SQLException e) {
-                    description = "";
-                }
-
-                return new Book(
-                        rs.getInt("book_id"),
-                        rs.getString("title"),
-                        authors,
-                        rs.getInt("publish_year"),
-                        rs.getString("publishers"),
-                        rs.getString("category"),
-                        imageUrl,
-                        description
-                );
+                return rs.next() ? readBook(rs) : null;
             }
         } catch (SQLException e) {
             logger.log("Error during book retrieval: " + e.getMessage());
@@ -72,91 +101,116 @@ public class BookDAO extends BaseDAO implements AutoCloseable {
         }
     }
 
+    /**
+     * Libri con gli ID indicati, nello stesso ordine; gli ID inesistenti vengono saltati.
+     */
     public List<Book> getBooks(List<Integer> ids) {
         List<Book> books = new ArrayList<>();
         if (ids == null) {
             return books;
         }
-        try {
-            for (int id : ids) {
-                Book book = getBook(id);
-                if (book != null) {
-                    books.add(book);
-                }
+        Map<Integer, Book> found = getBooksById(ids);
+        for (int id : ids) {
+            Book book = found.get(id);
+            if (book != null) {
+                books.add(book);
             }
-            return books;
-        } catch (Exception e) {
-            logger.log("Error during book retrieval: " + e.getMessage());
-            return books;
         }
+        return books;
     }
 
-    public List<Book> getBooks(String title) {
-        List<Book> books = new ArrayList<>();
-        if (title == null) {
+    /**
+     * Carica insieme tutti i libri richiesti, con autori e copertine, in una sola query
+     * qualunque sia il numero di ID. Gli ID inesistenti non compaiono nella mappa.
+     */
+    public Map<Integer, Book> getBooksById(Collection<Integer> ids) {
+        Map<Integer, Book> books = new HashMap<>();
+        if (ids == null || ids.isEmpty()) {
             return books;
         }
-        String query = "SELECT * FROM books WHERE title ILIKE ? ORDER BY publish_year ASC LIMIT 20";
-
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            String searchPattern = "%" + title + "%";
-            stmt.setString(1, searchPattern);
+        Integer[] idArray = new LinkedHashSet<>(ids).toArray(new Integer[0]);
+        String query = "SELECT " + BOOK_COLUMNS + " FROM books b " + BOOK_JOINS + "WHERE b.book_id = ANY(?)";
 
+        try (PreparedStatement stmt = prepare(query)) {
+            Array sqlIds = connection.createArrayOf("integer", idArray);
+            stmt.setArray(1, sqlIds);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    List<String> authors = getBookAuthors(rs.getInt("book_id"));
-
-                    String imageUrl = getBookImageUrl(rs.getInt("book_id"));
-
-                    String description = "";
-                    try {
-                        description = rs.getString("description");
-                        if (description == null) {
-                            description = "";
-                        }
-                    } catch (SQLException e) {
-                        description = "";
-                    }
-
-                    books.add(new Book(
-                            rs.getInt("book_id"),
-                            rs.getString("title"),
-                            authors,
-                            rs.getInt("publish_year"),
-                            rs.getString("publishers"),
-                            rs.getString("category"),
-                            imageUrl,
-                            description
-                    ));
+                    Book book = readBook(rs);
+                    books.put(book.getId(), book);
                 }
-
-                return books;
             }
+            sqlIds.free();
         } catch (SQLException e) {
             logger.log("Error during book retrieval: " + e.getMessage());
-            return books;
+        }
+        return books;
+    }
+
+    /**
+     * Posizione in un elenco ordinato per (anno di pubblicazione, ID): la pagina successiva
+     * parte dal primo libro dopo questa chiave, quindi costa come la prima qualunque sia la
+     * profondità (niente OFFSET da scorrere e scartare). Un libro senza anno ha anno 0.
+     */
+    public record Keyset(int publicationYear, int bookId) {
+        public static Keyset after(Book book) {
+            return new Keyset(book.getPublicationYear(), book.getId());
         }
     }
 
+    public List<Book> getBooks(String title) {
+        List<Book> books = new ArrayList<>();
+        forEachBook(title, books::add);
+        return books;
+    }
+
+    /**
+     * Come getBooks(title), ma passa ogni libro ad action appena letto dal ResultSet,
+     * senza costruire la lista. Restituisce il numero di libri trovati.
+     */
+    public int forEachBook(String title, Consumer<Book> action) {
+        return forEachBook(title, null, 20, action);
+    }
+
+    /**
+     * Pagina della ricerca per titolo, in ordine di anno crescente: i libri dopo after
+     * (null per la prima pagina), al massimo limit.
+     */
+    public int forEachBook(String title, Keyset after, int limit, Consumer<Book> action) {
+        if (title == null) {
+            return 0;
+        }
+        return forEachPage("bk.title ILIKE ?", "%" + title + "%", after, false, limit, action);
+    }
+
     public List<Book> getBooks(String category, int limit) {
         List<Book> books = new ArrayList<>();
+        forEachBook(category, limit, books::add);
+        return books;
+    }
+
+    /**
+     * Versione in streaming di getBooks(category, limit).
+     */
+    public int forEachBook(String category, int limit, Consumer<Book> action) {
+        int count = 0;
         if (category == null) {
-            return books;
+            return count;
         }
         if (limit == 0) limit = 20;
 
         String query;
         if (category.equals("none")) {
-            query = "SELECT b.book_id, b.title, b.publish_year, b.publishers, b.category, COUNT(lb.book_id) AS frequency_count " +
-                    "FROM books b INNER JOIN library_books lb ON b.book_id = lb.book_id " +
-                    "GROUP BY b.book_id, b.title, b.publish_year, b.publishers, b.category " +
-                    "ORDER BY frequency_count DESC LIMIT ?";
+            query = pageOfBooks("SELECT books.*, top.frequency_count FROM (" +
+                    "SELECT lb.book_id, COUNT(*) AS frequency_count FROM library_books lb " +
+                    "GROUP BY lb.book_id ORDER BY frequency_count DESC LIMIT ?) top " +
+                    "JOIN books ON books.book_id = top.book_id",
+                    "ORDER BY b.frequency_count DESC");
         } else {
-            query = "SELECT b.book_id, b.title, b.publish_year, b.publishers, b.category, 0 AS frequency_count " +
-                    "FROM books b WHERE b.category ILIKE ? ORDER BY RANDOM() DESC LIMIT ?";
+            query = pageOfBooks("SELECT * FROM books WHERE category ILIKE ? ORDER BY RANDOM() LIMIT ?", "");
         }
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             if (category.equals("none")) {
                 stmt.setInt(1, limit);
             } else {
@@ -167,38 +221,62 @@ public class BookDAO extends BaseDAO implements AutoCloseable {
 
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    List<String> authors = getBookAuthors(rs.getInt("book_id"));
+                    action.accept(readBook(rs));
+                    count++;
+                }
+
+                return count;
+            }
+        } catch (SQLException e) {
+            logger.log("Error during book retrieval: " + e.getMessage());
+            return count;
+        }
+    }
 
-                    String imageUrl = getBookImageUrl(rs.getInt("book_id"));
+    /**
+     * ID dei libri della categoria (ILIKE come getBooks(category, limit)) successivi ad afterId,
+     * in ordine di ID, al massimo limit: permette di scorrere una categoria a blocchi senza
+     * ordinamenti. Restituisce il numero di ID letti, -1 in caso di errore.
+     */
+    public int forEachBookIdInCategory(String category, int afterId, int limit, IntConsumer action) {
+        String query = "SELECT book_id FROM books WHERE category ILIKE ? AND book_id > ? ORDER BY book_id LIMIT ?";
+        int count = 0;
 
-                    String description = "";
-                    try {
-                        description = rs.getString("description");
-                        if (description == null) {
-                            description = "";
-                        }
-                    } catch (SQLException e) {
-                        description = "";
-                    }
+        try (PreparedStatement stmt = prepare(query)) {
+            stmt.setString(1, "%" + category + "%");
+            stmt.setInt(2, afterId);
+            stmt.setInt(3, limit);
 
-                    books.add(new Book(
-                            rs.getInt("book_id"),
-                            rs.getString("title"),
-                            authors,
-                            rs.getInt("publish_year"),
-                            rs.getString("publishers"),
-                            rs.getString("category"),
-                            imageUrl,
-                            description
-                    ));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(rs.getInt("book_id"));
+                    count++;
                 }
+                return count;
+            }
+        } catch (SQLException e) {
+            logger.log("Error during category scan: " + e.getMessage());
+            return -1;
+        }
+    }
 
-                return books;
+    /**
+     * Categorie distinte presenti nel catalogo; lista vuota in caso di errore.
+     */
+    public List<String> getCategories() {
+        String query = "SELECT DISTINCT category FROM books WHERE category IS NOT NULL";
+        List<String> categories = new ArrayList<>();
+
+        try (PreparedStatement stmt = prepare(query)) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    categories.add(rs.getString("category"));
+                }
             }
         } catch (SQLException e) {
-            logger.log("Error during book retrieval: " + e.getMessage());
-            return books;
+            logger.log("Error during categories retrieval: " + e.getMessage());
         }
+        return categories;
     }
 
     /*public String getBookImageUrl(String title) {
@@ -289,14 +367,13 @@ public class BookDAO extends BaseDAO implements AutoCloseable {
                 "FROM book_images " +
                 "WHERE book_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, book_id);
 
             try (ResultSet rs = stmt.executeQuery()) {
                 if (!rs.next()) {
                     return null;
                 }
-                logger.log("RISULTATO: " + rs.getString("image_url"));
                 return rs.getString("image_url");
             }
         } catch (SQLException e) {
@@ -312,7 +389,7 @@ public class BookDAO extends BaseDAO implements AutoCloseable {
                 "JOIN book_authors ba ON a.author_id = ba.author_id " +
                 "WHERE a.author_name = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setString(1, author);
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -334,31 +411,90 @@ public class BookDAO extends BaseDAO implements AutoCloseable {
     }
     */
 
+    /**
+     * Pagina della ricerca per autore, in ordine di anno decrescente: i libri dopo after
+     * (null per la prima pagina), al massimo limit. Un libro con più autori corrispondenti
+     * compare una volta sola.
+     */
+    public int forEachAuthorBook(String author, Keyset after, int limit, Consumer<Book> action) {
+        String where = "EXISTS (SELECT 1 FROM book_authors ba JOIN authors a ON a.author_id = ba.author_id " +
+                "WHERE ba.book_id = bk.book_id AND a.author_name ILIKE ?)";
+        return forEachPage(where, "%" + author + "%", after, true, limit, action);
+    }
+
+    // pagina con chiave (publish_year, book_id); where ha un solo parametro, value.
+    // Un anno NULL vale 0 ovunque (ordinamento, confronto e Keyset, come in readBook): senza
+    // COALESCE il token (0, id) di un libro senza anno salterebbe o ripeterebbe i libri datati
+    private int forEachPage(String where, String value, Keyset after, boolean descending, int limit, Consumer<Book> action) {
+        int count = 0;
+        String direction = descending ? " DESC" : " ASC";
+        String page = "SELECT bk.* FROM books bk WHERE " + where +
+                (after == null ? "" : " AND (" + yearKey("bk") + ", bk.book_id) " + (descending ? "<" : ">") + " (?, ?)") +
+                " ORDER BY " + yearKey("bk") + direction + ", bk.book_id" + direction + " LIMIT ?";
+        String query = pageOfBooks(page, "ORDER BY " + yearKey("b") + direction + ", b.book_id" + direction);
+
+        try (PreparedStatement stmt = prepare(query)) {
+            int i = 1;
+            stmt.setString(i++, value);
+            if (after != null) {
+                stmt.setInt(i++, after.publicationYear());
+                stmt.setInt(i++, after.bookId());
+            }
+            stmt.setInt(i, limit);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    action.accept(readBook(rs));
+                    count++;
+                }
+                return count;
+            }
+        } catch (SQLException e) {
+            logger.log("Error during pagination: " + e.getMessage());
+            return count;
+        }
+    }
+
+    private static String yearKey(String alias) {
+        return "COALESCE(" + alias + ".publish_year, 0)";
+    }
+
     public List<Book> getAuthorBooks(String author, int limit, int offset) {
-        String query = "SELECT ba.book_id " +
+        List<Book> books = new ArrayList<>();
+        forEachAuthorBook(author, limit, offset, books::add);
+        return books;
+    }
+
+    /**
+     * Versione in streaming di getAuthorBooks: l'intera pagina arriva con una sola query.
+     * Con OFFSET le pagine profonde costano di più: i nuovi client usano la versione con Keyset.
+     */
+    public int forEachAuthorBook(String author, int limit, int offset, Consumer<Book> action) {
+        int count = 0;
+        String query = pageOfBooks("SELECT bk.* " +
                 "FROM authors a " +
                 "JOIN book_authors ba ON a.author_id = ba.author_id " +
-                "JOIN books b ON ba.book_id = b.book_id " +
+                "JOIN books bk ON ba.book_id = bk.book_id " +
                 "WHERE a.author_name ILIKE ? " +
-                "ORDER BY b.publish_year DESC " +
-                "LIMIT ? OFFSET ?";
+                "ORDER BY bk.publish_year DESC " +
+                "LIMIT ? OFFSET ?",
+                "ORDER BY b.publish_year DESC");
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setString(1, "%" + author + "%");
             stmt.setInt(2, limit);
             stmt.setInt(3, offset);
 
             try (ResultSet rs = stmt.executeQuery()) {
-                List<Book> books = new ArrayList<>();
                 while (rs.next()) {
-                    Book book = getBook(rs.getInt("book_id"));
-                    if (book != null) books.add(book);
+                    action.accept(readBook(rs));
+                    count++;
                 }
-                return books;
+                return count;
             }
         } catch (SQLException e) {
             logger.log("Error during pagination: " + e.getMessage());
-            return new ArrayList<>();
+            return count;
         }
     }
 
@@ -370,7 +506,7 @@ public class BookDAO extends BaseDAO implements AutoCloseable {
 
         List<String> authors = new ArrayList<>();
 
-        try (PreparedStatement authorsStmt = connection.prepareStatement(authorsQuery)) {
+        try (PreparedStatement authorsStmt = prepare(authorsQuery)) {
             authorsStmt.setInt(1, id);
 
             try (ResultSet authorsRs = authorsStmt.executeQuery()) {
@@ -2,119 +2,175 @@ package ONA.booksrecommender.server.database.dao;
 
 import ONA.booksrecommender.objects.Book;
 import ONA.booksrecommender.objects.Library;
+import ONA.booksrecommender.server.database.ConnectionPool;
 import ONA.booksrecommender.utils.Logger;
 
-import java.sql.Connection;
+import java.sql.Array;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class LibraryDAO extends BaseDAO implements AutoCloseable {
     private BookDAO bookDAO;
 
-    public LibraryDAO(Logger logger, Connection connection, BookDAO bookDAO) {
-        super(logger, connection);
+    public LibraryDAO(Logger logger, ConnectionPool pool, BookDAO bookDAO) {
+        super(logger, pool);
         this.bookDAO = bookDAO;
     }
 
-    public Library getLibrary(int id) {
-        List<Book> books = new ArrayList<>();
+    // una riga per libreria, con gli ID dei libri aggregati in un array (vuoto se la libreria è vuota)
+    private static final String SUMMARY_QUERY = "SELECT l.library_id, l.library_name, l.username, " +
+            "array_remove(array_agg(lb.book_id), NULL) AS book_ids " +
+            "FROM libraries l LEFT JOIN library_books lb ON lb.library_id = l.library_id ";
+    private static final String SUMMARY_GROUP = " GROUP BY l.library_id, l.library_name, l.username";
+
+    private static Library readSummary(ResultSet rs) throws SQLException {
+        List<Integer> bookIds = new ArrayList<>();
+        Array ids = rs.getArray("book_ids");
+        if (ids != null) {
+            for (Object bookId : (Object[]) ids.getArray()) {
+                bookIds.add(((Number) bookId).intValue());
+            }
+            ids.free();
+        }
+        return Library.withBookIds(rs.getInt("library_id"), rs.getString("library_name"), rs.getString("username"), bookIds);
+    }
 
-        // 1. Recupero dei libri: usa book_id dalla tabella library_books
-        String booksQuery = "SELECT book_id FROM library_books WHERE library_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(booksQuery)) {
+    /**
+     * Libreria con i soli ID dei libri (vedi Library.withBookIds), letta con una sola query.
+     * Da preferire a getLibrary quando servono solo i dati della libreria o gli ID dei libri.
+     */
+    public Library getLibrarySummary(int id) {
+        String query = SUMMARY_QUERY + "WHERE l.library_id = ?" + SUMMARY_GROUP;
+
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, id);
 
             try (ResultSet rs = stmt.executeQuery()) {
-                while (rs.next()) {
-                    Book book = bookDAO.getBook(rs.getInt("book_id"));
-                    if (book != null) {
-                        books.add(book);
-                    }
-                }
+                return rs.next() ? readSummary(rs) : null;
             }
         } catch (SQLException e) {
-            logger.log("Error retrieving books for library ID " + id + ": " + e.getMessage());
+            logger.log("Error retrieving library details for ID " + id + ": " + e.getMessage());
             return null;
         }
+    }
 
-        // 2. Recupero dei dettagli della libreria dalla tabella libraries
-        String libraryQuery = "SELECT * FROM libraries WHERE library_id = ?";
-        try (PreparedStatement libStmt = connection.prepareStatement(libraryQuery)) {
-            libStmt.setInt(1, id);
-
-            try (ResultSet libRs = libStmt.executeQuery()) {
-                if (libRs.next()) {
-                    System.out.println(libRs.getString("library_name"));
-                    return new Library(
-                            libRs.getInt("library_id"),
-                            libRs.getString("library_name"),
-                            libRs.getString("username"),
-                            books
-                    );
-                }
-                return null;
+    public Library getLibrarySummary(String name, String username) {
+        String query = SUMMARY_QUERY + "WHERE l.library_name = ? AND l.username = ?" + SUMMARY_GROUP;
+
+        try (PreparedStatement stmt = prepare(query)) {
+            stmt.setString(1, name);
+            stmt.setString(2, username);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? readSummary(rs) : null;
             }
         } catch (SQLException e) {
-            logger.log("Error retrieving library details for ID " + id + ": " + e.getMessage());
+            logger.log("Error during library retrieval: " + e.getMessage());
             return null;
         }
     }
 
-    public Library getLibrary(String name, String username) {
-        String query = "SELECT * FROM libraries WHERE library_name = ? AND username = ?";
+    /**
+     * Tutte le librerie dell'utente con i soli ID dei libri, in una sola query.
+     */
+    public List<Library> getLibrarySummaries(String username) {
+        String query = SUMMARY_QUERY + "WHERE l.username = ?" + SUMMARY_GROUP + " ORDER BY l.library_id";
+        List<Library> libraries = new ArrayList<>();
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, name);
-            stmt.setString(2, username);
+        try (PreparedStatement stmt = prepare(query)) {
+            stmt.setString(1, username);
 
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return getLibrary(rs.getInt("library_id"));
-                } else {
-                    return null;
+                while (rs.next()) {
+                    libraries.add(readSummary(rs));
                 }
             }
         } catch (SQLException e) {
-            logger.log("Error during library retrieval: " + e.getMessage());
-            return null;
+            logger.log("Error during libraries retrieval: " + e.getMessage());
         }
+        return libraries;
+    }
+
+    /**
+     * Solo gli ID dei libri contenuti nella libreria.
+     */
+    public List<Integer> getLibraryBookIds(int id) {
+        String query = "SELECT book_id FROM library_books WHERE library_id = ?";
+        List<Integer> bookIds = new ArrayList<>();
+
+        try (PreparedStatement stmt = prepare(query)) {
+            stmt.setInt(1, id);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    bookIds.add(rs.getInt("book_id"));
+                }
+            }
+        } catch (SQLException e) {
+            logger.log("Error retrieving books for library ID " + id + ": " + e.getMessage());
+        }
+        return bookIds;
+    }
+
+    /**
+     * Libreria con i libri completi: una query per la libreria e una per tutti i suoi libri.
+     */
+    public Library getLibrary(int id) {
+        return withBooks(getLibrarySummary(id));
+    }
+
+    public Library getLibrary(String name, String username) {
+        return withBooks(getLibrarySummary(name, username));
     }
 
     public List<Library> getLibraries(Book book) {
         return null;
     }
 
+    /**
+     * Tutte le librerie dell'utente con i libri completi, caricati insieme con una sola query.
+     */
     public List<Library> getLibraries(String username) {
-        String query = "SELECT * FROM libraries WHERE username = ?";
-
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setString(1, username);
+        List<Library> summaries = getLibrarySummaries(username);
+        Set<Integer> allIds = new HashSet<>();
+        for (Library summary : summaries) {
+            allIds.addAll(summary.getBookIds());
+        }
+        Map<Integer, Book> books = bookDAO.getBooksById(allIds);
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                List<Library> libraries = new ArrayList<>();
+        List<Library> libraries = new ArrayList<>();
+        for (Library summary : summaries) {
+            libraries.add(withBooks(summary, books));
+        }
+        return libraries;
+    }
 
-                while (rs.next()) {
-                    Library library = getLibrary(rs.getInt("library_id"));
-                    if (library != null) {
-                        libraries.add(library);
-                    }
-                }
+    private Library withBooks(Library summary) {
+        return summary == null ? null : withBooks(summary, bookDAO.getBooksById(summary.getBookIds()));
+    }
 
-                return libraries;
+    // i libri non più presenti nel catalogo vengono saltati, come faceva il caricamento libro per libro
+    private static Library withBooks(Library summary, Map<Integer, Book> books) {
+        List<Book> libraryBooks = new ArrayList<>();
+        for (int bookId : summary.getBookIds()) {
+            Book book = books.get(bookId);
+            if (book != null) {
+                libraryBooks.add(book);
             }
-        } catch (SQLException e) {
-            logger.log("Error during libraries retrieval: " + e.getMessage());
-            return new ArrayList<>(); // Restituisce lista vuota invece di null
         }
+        return new Library(summary.getId(), summary.getName(), summary.getUserId(), libraryBooks);
     }
 
     public boolean addLibrary(String library, String username) {
         String query = "INSERT INTO libraries (library_name, username) VALUES (?, ?)";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setString(1, library);
             stmt.setString(2, username);
 
@@ -129,7 +185,7 @@ public class LibraryDAO extends BaseDAO implements AutoCloseable {
     public boolean updateLibrary(Library library, Library updatedLibrary) {
         String query = "UPDATE libraries SET library_name = ?, username = ? WHERE library_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setString(1, updatedLibrary.getName());
             stmt.setString(2, updatedLibrary.getUserId());
             stmt.setInt(3, library.getId());
@@ -145,7 +201,7 @@ public class LibraryDAO extends BaseDAO implements AutoCloseable {
     public boolean removeLibrary(Library library) {
         String query = "DELETE FROM libraries WHERE library_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, library.getId());
 
             int rows = stmt.executeUpdate();
@@ -159,7 +215,7 @@ public class LibraryDAO extends BaseDAO implements AutoCloseable {
     public boolean addBook(Book book, Library library) {
         String query = "INSERT INTO library_books (book_id, library_id) VALUES (?, ?)";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, book.getId());
             stmt.setInt(2, library.getId());
 
@@ -178,7 +234,7 @@ public class LibraryDAO extends BaseDAO implements AutoCloseable {
     public boolean removeBook(Book book, Library library) {
         String query = "DELETE FROM library_books WHERE book_id = ? AND library_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, book.getId());
             stmt.setInt(2, library.getId());
 
@@ -3,20 +3,21 @@ package ONA.booksrecommender.server.database.dao;
 import ONA.booksrecommender.objects.Book;
 import ONA.booksrecommender.objects.Library;
 import ONA.booksrecommender.objects.Rating;
+import ONA.booksrecommender.server.database.ConnectionPool;
 import ONA.booksrecommender.utils.Logger;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class RatingDAO extends BaseDAO implements AutoCloseable {
     private BookDAO bookDAO;
 
-    public RatingDAO(Logger logger, Connection connection, BookDAO bookDAO) {
-        super(logger, connection);
+    public RatingDAO(Logger logger, ConnectionPool pool, BookDAO bookDAO) {
+        super(logger, pool);
         this.bookDAO = bookDAO;
     }
 
@@ -24,7 +25,7 @@ public class RatingDAO extends BaseDAO implements AutoCloseable {
     public Rating getRating(int bookId, String username) {
         String query = "SELECT * FROM ratings WHERE book_id = ? AND username = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, bookId);
             stmt.setString(2, username);
             try (ResultSet rs = stmt.executeQuery()) {
@@ -42,19 +43,27 @@ public class RatingDAO extends BaseDAO implements AutoCloseable {
 
     // prendi tutte le recensioni di un libro
     public List<Rating> getRatings(int bookId) {
+        List<Rating> ratings = new ArrayList<>();
+        forEachRating(bookId, ratings::add);
+        return ratings;
+    }
+
+    // come sopra, ma passa ogni recensione ad action appena letta, senza costruire la lista
+    public int forEachRating(int bookId, Consumer<Rating> action) {
         String query = "SELECT * FROM ratings WHERE book_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, bookId);
             try (ResultSet rs = stmt.executeQuery()) {
 
-                List<Rating> ratings = new ArrayList<>();
+                int count = 0;
 
                 while (rs.next()) {
-                    ratings.add(new Rating(rs.getString("username"), rs.getString("book_id"), rs.getInt("style"), rs.getInt("content"), rs.getInt("liking"), rs.getInt("originality"), rs.getInt("edition"), rs.getString("notes")));
+                    action.accept(new Rating(rs.getString("username"), rs.getString("book_id"), rs.getInt("style"), rs.getInt("content"), rs.getInt("liking"), rs.getInt("originality"), rs.getInt("edition"), rs.getString("notes")));
+                    count++;
                 }
 
-                return ratings;
+                return count;
             }
 
         } catch (SQLException e) {
@@ -64,19 +73,27 @@ public class RatingDAO extends BaseDAO implements AutoCloseable {
 
     // prendi tutte le recensioni di un utente
     public List<Rating> getRatings(String username) {
+        List<Rating> ratings = new ArrayList<>();
+        forEachRating(username, ratings::add);
+        return ratings;
+    }
+
+    // come sopra, ma passa ogni recensione ad action appena letta, senza costruire la lista
+    public int forEachRating(String username, Consumer<Rating> action) {
         String query = "SELECT * FROM ratings WHERE username = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setString(1, username);
             try (ResultSet rs = stmt.executeQuery()) {
 
-                List<Rating> ratings = new ArrayList<>();
+                int count = 0;
 
                 while (rs.next()) {
-                    ratings.add(new Rating(rs.getString("username"), rs.getString("book_id"), rs.getInt("style"), rs.getInt("content"), rs.getInt("liking"), rs.getInt("originality"), rs.getInt("edition"), rs.getString("notes")));
+                    action.accept(new Rating(rs.getString("username"), rs.getString("book_id"), rs.getInt("style"), rs.getInt("content"), rs.getInt("liking"), rs.getInt("originality"), rs.getInt("edition"), rs.getString("notes")));
+                    count++;
                 }
 
-                return ratings;
+                return count;
             }
 
         } catch (SQLException e) {
@@ -94,7 +111,7 @@ public class RatingDAO extends BaseDAO implements AutoCloseable {
         // TODO: da fare controllo duplicati
         String query = "INSERT INTO ratings (username, book_id, style, content, liking, originality, edition, notes) VALUES (?, ?, ? ,? ,? ,? ,? ,?)";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setString(1, username);
             stmt.setInt(2, bookId);
             stmt.setInt(3, style);
@@ -116,7 +133,7 @@ public class RatingDAO extends BaseDAO implements AutoCloseable {
     public boolean updateRating(int bookId, String username, int style, int content, int liking, int originality, int edition, String notes) {
         String query = "UPDATE ratings SET style = ?, content = ?, liking = ?, originality = ?, edition = ?, notes = ? WHERE username = ? AND book_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, style);
             stmt.setInt(2, content);
             stmt.setInt(3, liking);
@@ -138,7 +155,7 @@ public class RatingDAO extends BaseDAO implements AutoCloseable {
     public boolean removeRating(int bookId, String username) {
         String query = "DELETE FROM ratings WHERE username = ? AND book_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setString(1, username);
             stmt.setInt(2, bookId);
 
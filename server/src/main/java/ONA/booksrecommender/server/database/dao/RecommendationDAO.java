@@ -1,6 +1,7 @@
 package ONA.booksrecommender.server.database.dao;
 
 import ONA.booksrecommender.objects.Recommendation;
+import ONA.booksrecommender.server.database.ConnectionPool;
 import ONA.booksrecommender.utils.Logger;
 
 import java.sql.Connection;
@@ -14,8 +15,8 @@ import java.util.HashMap;
 
 public class RecommendationDAO extends BaseDAO implements AutoCloseable {
 
-    public RecommendationDAO(Logger logger, Connection connection) {
-        super(logger, connection);
+    public RecommendationDAO(Logger logger, ConnectionPool pool) {
+        super(logger, pool);
     }
 
     /**
@@ -33,7 +34,7 @@ public class RecommendationDAO extends BaseDAO implements AutoCloseable {
         // Mappa: Key = Username, Value = Lista di ID dei libri consigliati
         Map<String, List<String>> userRecsMap = new HashMap<>();
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setInt(1, bookId);
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -73,7 +74,7 @@ public class RecommendationDAO extends BaseDAO implements AutoCloseable {
         String query = "SELECT username, book_id, book_recommended_id FROM recommendations WHERE username = ?";
         Map<String, List<String>> groupedRecs = new HashMap<>();
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setString(1, senderUsername);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
@@ -101,25 +102,30 @@ public class RecommendationDAO extends BaseDAO implements AutoCloseable {
     public boolean addRecommendation(Recommendation rec) {
         String query = "INSERT INTO recommendations (username, book_id, book_recommended_id) VALUES (?, ?, ?)";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            connection.setAutoCommit(false); // Usiamo una transazione per sicurezza
+        // la transazione resta su una connessione presa in prestito solo da questo thread
+        try (Connection transaction = borrow()) {
+            transaction.setAutoCommit(false); // Usiamo una transazione per sicurezza
+            try (PreparedStatement stmt = prepare(query)) {
+                for (String recId : rec.getRecommendedBookIds()) {
+                    stmt.setString(1, rec.getUserId());
+                    stmt.setInt(2, Integer.parseInt(rec.getBookId()));
+                    stmt.setInt(3, Integer.parseInt(recId));
+                    stmt.addBatch(); // Ottimizza l'inserimento multiplo
+                }
 
-            for (String recId : rec.getRecommendedBookIds()) {
-                stmt.setString(1, rec.getUserId());
-                stmt.setInt(2, Integer.parseInt(rec.getBookId()));
-                stmt.setInt(3, Integer.parseInt(recId));
-                stmt.addBatch(); // Ottimizza l'inserimento multiplo
+                int[] rows = stmt.executeBatch();
+                transaction.commit();
+                return rows.length > 0;
+            } catch (SQLException e) {
+                try { transaction.rollback(); } catch (SQLException ex) { /* ignore */ }
+                logger.log("Error adding recommendation batch: " + e.getMessage());
+                return false;
+            } finally {
+                try { transaction.setAutoCommit(true); } catch (SQLException e) { /* ignore */ }
             }
-
-            int[] rows = stmt.executeBatch();
-            connection.commit();
-            return rows.length > 0;
         } catch (SQLException e) {
-            try { connection.rollback(); } catch (SQLException ex) { /* ignore */ }
             logger.log("Error adding recommendation batch: " + e.getMessage());
             return false;
-        } finally {
-            try { connection.setAutoCommit(true); } catch (SQLException e) { /* ignore */ }
         }
     }
 
@@ -129,7 +135,7 @@ public class RecommendationDAO extends BaseDAO implements AutoCloseable {
     public boolean removeRecommendations(String username, String bookId) {
         String query = "DELETE FROM recommendations WHERE username = ? AND book_id = ?";
 
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = prepare(query)) {
             stmt.setString(1, username);
             stmt.setInt(2, Integer.parseInt(bookId));
 
@@ -2,18 +2,18 @@ package ONA.booksrecommender.server.database.dao;
 
 import ONA.booksrecommender.objects.User;
 import ONA.booksrecommender.server.errors.UserNotFoundException;
+import ONA.booksrecommender.server.database.ConnectionPool;
 import ONA.booksrecommender.utils.Logger;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 
-import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
 public class UserDAO extends BaseDAO implements AutoCloseable {
 
-    public UserDAO(Logger logger, Connection connection) {
-        super(logger, connection); // crea la connessione nel costruttore di BaseDAO
+    public UserDAO(Logger logger, ConnectionPool pool) {
+        super(logger, pool); // crea la connessione nel costruttore di BaseDAO
     }
 
     public User getUser(String userId, boolean login) {
@@ -24,8 +24,7 @@ public class UserDAO extends BaseDAO implements AutoCloseable {
         else
             query = "SELECT * FROM users WHERE username = ?";
 
-        try {
-            PreparedStatement stmt = connection.prepareStatement(query);
+        try (PreparedStatement stmt = prepare(query)) { // va chiuso: restituisce la connessione al pool
             stmt.setString(1, userId);
 
             //ResultSet rs = stmt.executeQuery();
@@ -96,7 +95,7 @@ public class UserDAO extends BaseDAO implements AutoCloseable {
             // Verifica che la password sia stata cryptata correttamente
             // boolean isMatch = passwordEncoder.matches(password, hashedPassword);
 
-            try (PreparedStatement insertStmt = connection.prepareStatement(insertQuery)) {
+            try (PreparedStatement insertStmt = prepare(insertQuery)) {
                 insertStmt.setString(1, userId);
                 insertStmt.setString(2, name);
                 insertStmt.setString(3, surname);
@@ -0,0 +1,11 @@
+package ONA.booksrecommender.server.errors;
+
+// La richiesta ha superato la sua scadenza (vedi Deadline): il lavoro rimasto viene abbandonato.
+// Non controllata, così attraversa i DAO che intercettano solo SQLException.
+public class DeadlineExceededException extends RuntimeException {
+
+    // Costruttore senza argomenti
+    public DeadlineExceededException() {
+        super("deadline_exceeded");
+    }
+}
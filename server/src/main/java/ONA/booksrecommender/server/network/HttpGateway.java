@@ -0,0 +1,417 @@
+package ONA.booksrecommender.server.network;
+
+import ONA.booksrecommender.server.ClientContext;
+import ONA.booksrecommender.server.RequestDispatcher;
+import ONA.booksrecommender.server.ServerConfig;
+import ONA.booksrecommender.server.ServerFacade;
+import ONA.booksrecommender.server.ServerMetrics;
+import ONA.booksrecommender.server.protocol.JsonResponseWriter;
+import ONA.booksrecommender.utils.Logger;
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Gateway HTTP/JSON di sola lettura davanti a ServerFacade, per mettere cache HTTP e
+ * load balancer davanti al server. Le richieste passano dal RequestDispatcher come quelle
+ * dei socket (scadenze, rate limit per indirizzo, BUSY), su virtual thread.
+ * <p>
+ * Ogni risposta di lettura ha un ETag forte calcolato dal corpo JSON (SHA-256), quindi uguale
+ * su tutte le istanze dietro al load balancer e dopo un riavvio, e diverso appena i dati cambiano.
+ * Il gateway ricorda l'ultimo ETag di ogni URL: finché è valido un GET con lo stesso If-None-Match
+ * riceve 304 senza arrivare ai DAO. Un ETag del catalogo resta valido per httpMaxAge, uno dei dati
+ * degli utenti finché ServerFacade.getDataVersion() non cambia e al più USER_VALIDATOR_MILLIS
+ * (scritture arrivate ad altre istanze o fatte direttamente sul database).
+ */
+public class HttpGateway {
+    private static final String SEPARATOR = ";";
+    private static final String[] BOOK = { "id", "title", "authors", "year", "publisher", "category", "cover", "description" };
+    private static final String[] RATING = { "username", "book_id", "style", "content", "enjoyment", "originality", "edition", "final_score", "notes" };
+    private static final String[] ADVICE = { "book_id", "recommended[]" };
+    private static final int MAX_VALIDATORS = 10_000;
+    private static final long USER_VALIDATOR_MILLIS = 5_000;
+
+    /**
+     * Endpoint: comando di ServerFacade costruito dai segmenti del percorso e dai parametri.
+     * Nel pattern "*" è un segmento qualsiasi, "#" un ID numerico (altrimenti 400 invalid_id).
+     *
+     * @param catalog   true se il risultato cambia solo con il catalogo dei libri
+     * @param list      true se la risposta è un array
+     * @param fields    nomi dei campi dei record; "nome[]" per i valori separati da "," nelle risposte semplici
+     * @param empty     risposte semplici che significano "nessun risultato"
+     */
+    private record Route(String pattern, boolean catalog, boolean list, String[] fields, Set<String> empty,
+                         Function<Request, String[]> command) {}
+
+    private record Request(String[] path, Map<String, String> query) {
+        String param(String name, String defaultValue) {
+            return query.getOrDefault(name, defaultValue);
+        }
+    }
+
+    private static final List<Route> ROUTES = List.of(
+            new Route("/books/top", false, true, BOOK, Set.of(),
+                    r -> new String[] { "get_book", "top", r.param("category", "general"), r.param("limit", "20") }),
+            new Route("/books", true, true, BOOK, Set.of("NOT_FOUND"), r -> r.query().containsKey("author")
+                    ? new String[] { "get_book", "author", r.param("author", ""), r.param("cursor", r.param("offset", "0")) }
+                    : new String[] { "get_book", "title", r.param("title", ""), r.param("cursor", "0") }),
+            new Route("/books/#", true, false, BOOK, Set.of(),
+                    r -> new String[] { "get_book", "id", r.path()[1] }),
+            new Route("/books/#/authors", true, false, new String[] { "authors[]" }, Set.of(),
+                    r -> new String[] { "get_book", "authors", r.path()[1] }),
+            new Route("/books/#/reviews", false, true, RATING, Set.of(),
+                    r -> new String[] { "get_book_reviews", r.path()[1] }),
+            new Route("/books/#/advices", false, true, ADVICE, Set.of("NO_RECOMMENDATIONS"),
+                    r -> new String[] { "get_book_advices", r.path()[1] }),
+            new Route("/users/*", false, false, new String[] { "username", "name", "surname", "email" }, Set.of(),
+                    r -> new String[] { "get_user", r.path()[1] }),
+            new Route("/users/*/libraries", false, false, new String[] { "ids[]" }, Set.of(),
+                    r -> new String[] { "get_user_libraries", r.path()[1] }),
+            new Route("/users/*/reviews", false, true, RATING, Set.of("NO_REVIEWS"),
+                    r -> new String[] { "get_user_reviews", r.path()[1] }),
+            new Route("/users/*/advices", false, true, ADVICE, Set.of("NO_RECOMMENDATIONS_MADE"),
+                    r -> new String[] { "get_advices_made_by_user", r.path()[1] }),
+            new Route("/libraries/#", false, false, new String[] { "id", "name", "username", "books[]" }, Set.of(),
+                    r -> new String[] { "get_user_library", "id", r.path()[1] })
+    );
+
+    private final ServerConfig config;
+    private final Logger logger;
+    private final ServerFacade facade;
+    private final RequestDispatcher dispatcher;
+    private final Gson gson = new Gson();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    // ultimo ETag inviato per ogni URL, dal meno al più usato di recente
+    private final Map<String, Validator> validators = Collections.synchronizedMap(
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Validator> eldest) {
+                    return size() > MAX_VALIDATORS;
+                }
+            });
+    private HttpServer server;
+    private ExecutorService executor;
+
+    private record Validator(String etag, long dataVersion, long expiresAtMillis) {}
+
+    public HttpGateway(ServerConfig config, Logger logger, ServerFacade facade, RequestDispatcher dispatcher, ServerMetrics metrics) {
+        this.config = config;
+        this.logger = logger;
+        this.facade = facade;
+        this.dispatcher = dispatcher;
+        metrics.registerGauge("Richieste HTTP", requests::sum);
+        metrics.registerGauge("Risposte HTTP 304", notModified::sum);
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(config.getHttpPort()), 0);
+        executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("HttpWorker-", 0).factory());
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        logger.log("HTTP gateway listening on port " + config.getHttpPort());
+    }
+
+    /**
+     * Chiude la porta HTTP; da chiamare dopo RequestDispatcher.drain, quando le risposte in corso sono partite.
+     */
+    public void stop() {
+        if (server != null) {
+            server.stop(1);
+            executor.shutdown();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                send(exchange, 405, error("method_not_allowed"));
+                return;
+            }
+            String[] path = decodePath(exchange.getRequestURI().getRawPath());
+            Route route = match(path);
+            if (route == null) {
+                send(exchange, 404, error("unknown_path"));
+                return;
+            }
+
+            if (!validIds(route, path)) {
+                send(exchange, 400, error("invalid_id"));
+                return;
+            }
+
+            String url = exchange.getRequestURI().toString();
+            if (notModified(exchange, route, url)) {
+                return;
+            }
+
+            long dataVersion = facade.getDataVersion(); // letta prima della richiesta (vedi ServerFacade.handleRequest)
+            Request request = new Request(path, decodeQuery(exchange.getRequestURI().getRawQuery()));
+            JsonResponseWriter out = new JsonResponseWriter(route.fields());
+            ClientContext client = new ClientContext(exchange.getRemoteAddress().getAddress().getHostAddress());
+            dispatcher.execute(route.command().apply(request), out, client);
+
+            String reply = out.getReply();
+            if (reply == null || route.empty().contains(reply)) {
+                JsonElement result = out.getResult();
+                if (result == null) {
+                    result = route.list() ? new JsonArray() : null;
+                }
+                if (result == null) {
+                    send(exchange, 404, error("not_found"));
+                    return;
+                }
+                linkNextPage(exchange, request, result);
+                sendCacheable(exchange, route, url, dataVersion, result);
+                return;
+            }
+            if (!reply.equals("NOT_FOUND") && !reply.startsWith("ERROR" + SEPARATOR) && !reply.startsWith("BUSY" + SEPARATOR)) {
+                sendCacheable(exchange, route, url, dataVersion, parseReply(reply, route));
+                return;
+            }
+            sendError(exchange, reply);
+        } catch (RuntimeException e) {
+            logger.log("HTTP error: " + e.getMessage());
+            send(exchange, 400, error("bad_request"));
+        }
+    }
+
+    // 304 dall'ETag ricordato per l'URL, se è ancora valido: la richiesta non arriva al dispatcher
+    private boolean notModified(HttpExchange exchange, Route route, String url) throws IOException {
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        Validator validator = validators.get(url);
+        if (validator == null || System.currentTimeMillis() >= validator.expiresAtMillis()
+                || (!route.catalog() && validator.dataVersion() != facade.getDataVersion())
+                || !matches(ifNoneMatch, validator.etag())) {
+            return false;
+        }
+        sendNotModified(exchange, route, validator.etag());
+        return true;
+    }
+
+    private void sendCacheable(HttpExchange exchange, Route route, String url, long dataVersion, JsonElement body) throws IOException {
+        byte[] bytes = gson.toJson(body).getBytes(StandardCharsets.UTF_8);
+        String etag = etag(bytes);
+        long lifetime = route.catalog() ? config.getHttpMaxAgeSeconds() * 1000L : USER_VALIDATOR_MILLIS;
+        validators.put(url, new Validator(etag, dataVersion, System.currentTimeMillis() + lifetime));
+        if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+            sendNotModified(exchange, route, etag);
+            return;
+        }
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", cacheControl(route));
+        send(exchange, 200, bytes);
+    }
+
+    private void sendNotModified(HttpExchange exchange, Route route, String etag) throws IOException {
+        notModified.increment();
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", cacheControl(route));
+        exchange.sendResponseHeaders(304, -1);
+    }
+
+    // primi 128 bit dello SHA-256 del corpo, tra virgolette come richiede l'header
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // SHA-256 è garantito da ogni JVM
+        }
+    }
+
+    // il catalogo può restare in cache per httpMaxAge, i dati degli utenti vanno sempre riconvalidati
+    private String cacheControl(Route route) {
+        return route.catalog() ? "public, max-age=" + config.getHttpMaxAgeSeconds() : "no-cache";
+    }
+
+    // NOT_FOUND, ERROR;motivo[;...], BUSY;ms
+    private void sendError(HttpExchange exchange, String reply) throws IOException {
+        String[] parts = reply.split(SEPARATOR);
+        if (parts[0].equals("NOT_FOUND")) {
+            send(exchange, 404, error("not_found"));
+            return;
+        }
+        String reason = parts.length > 1 ? parts[1] : "error";
+        int status = switch (reason) {
+            case "missing_params", "invalid_id", "invalid_cursor" -> 400;
+            case "rate_limited" -> 429;
+            case "shutting_down" -> 503;
+            case "deadline_exceeded" -> 504;
+            default -> parts[0].equals("BUSY") ? 503 : 500;
+        };
+        String retryMillis = parts[0].equals("BUSY") ? parts[1] : reason.equals("rate_limited") && parts.length > 2 ? parts[2] : null;
+        if (retryMillis != null) {
+            exchange.getResponseHeaders().set("Retry-After", Long.toString(Math.max(1, (Long.parseLong(retryMillis) + 999) / 1000)));
+        }
+        send(exchange, status, error(parts[0].equals("BUSY") ? "busy" : reason));
+    }
+
+    // il record finale NEXT;token delle ricerche a pagine diventa l'header Link verso la pagina successiva
+    private static void linkNextPage(HttpExchange exchange, Request request, JsonElement result) {
+        if (!(result instanceof JsonArray array) || array.isEmpty()) {
+            return;
+        }
+        JsonElement last = array.get(array.size() - 1);
+        if (!last.isJsonObject() || !last.getAsJsonObject().get("id").getAsString().equals("NEXT")) {
+            return;
+        }
+        array.remove(array.size() - 1);
+        Map<String, String> query = new LinkedHashMap<>(request.query());
+        query.remove("offset");
+        query.put("cursor", last.getAsJsonObject().get("title").getAsString());
+        StringJoiner next = new StringJoiner("&", "<" + exchange.getRequestURI().getRawPath() + "?", ">; rel=\"next\"");
+        query.forEach((name, value) -> next.add(URLEncoder.encode(name, StandardCharsets.UTF_8) + "=" + URLEncoder.encode(value, StandardCharsets.UTF_8)));
+        exchange.getResponseHeaders().set("Link", next.toString());
+    }
+
+    // risposte semplici di ServerFacade: record separati da "|", campi da ";"
+    private static JsonElement parseReply(String reply, Route route) {
+        JsonArray records = new JsonArray();
+        for (String line : reply.split("\\|")) {
+            if (line.isEmpty() && route.list()) {
+                continue;
+            }
+            String[] values = line.split(SEPARATOR, -1);
+            JsonObject record = new JsonObject();
+            for (int i = 0; i < route.fields().length; i++) {
+                String name = route.fields()[i];
+                String value = i < values.length ? values[i] : "";
+                if (name.endsWith("[]")) {
+                    JsonArray array = new JsonArray();
+                    for (String item : value.split(",")) {
+                        if (!item.isBlank()) {
+                            array.add(item.trim());
+                        }
+                    }
+                    record.add(name.substring(0, name.length() - 2), array);
+                } else {
+                    record.addProperty(name, value);
+                }
+            }
+            records.add(record);
+        }
+        return route.list() ? records : records.get(0);
+    }
+
+    private static Route match(String[] path) {
+        for (Route route : ROUTES) {
+            String[] pattern = route.pattern().substring(1).split("/");
+            if (pattern.length != path.length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < pattern.length && matches; i++) {
+                matches = pattern[i].equals("*") || pattern[i].equals("#") ? !path[i].isEmpty() : pattern[i].equals(path[i]);
+            }
+            if (matches) {
+                return route;
+            }
+        }
+        return null;
+    }
+
+    // i segmenti "#" del pattern devono essere ID numerici (int)
+    private static boolean validIds(Route route, String[] path) {
+        String[] pattern = route.pattern().substring(1).split("/");
+        for (int i = 0; i < pattern.length; i++) {
+            if (pattern[i].equals("#") && !(path[i].length() <= 9 && path[i].chars().allMatch(c -> c >= '0' && c <= '9'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // If-None-Match: "a", "b" oppure *; confronto debole come prevede la RFC 9110
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] decodePath(String rawPath) {
+        String[] segments = rawPath.replaceAll("^/+|/+$", "").split("/");
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = URLDecoder.decode(segments[i], StandardCharsets.UTF_8);
+        }
+        return segments;
+    }
+
+    private static Map<String, String> decodeQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            query.putIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private static JsonElement error(String reason) {
+        JsonObject error = new JsonObject();
+        error.addProperty("error", reason);
+        return error;
+    }
+
+    private void send(HttpExchange exchange, int status, JsonElement body) throws IOException {
+        send(exchange, status, gson.toJson(body).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void send(HttpExchange exchange, int status, byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
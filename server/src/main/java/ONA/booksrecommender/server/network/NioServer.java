@@ -0,0 +1,422 @@
+package ONA.booksrecommender.server.network;
+
+import ONA.booksrecommender.managers.ThreadManager;
+import ONA.booksrecommender.server.ClientContext;
+import ONA.booksrecommender.server.ServerConfig;
+import ONA.booksrecommender.server.ConnectionsCleaner;
+import ONA.booksrecommender.server.RequestDispatcher;
+import ONA.booksrecommender.server.ServerMetrics;
+import ONA.booksrecommender.server.protocol.Handshake;
+import ONA.booksrecommender.server.protocol.ResponseCompressor;
+import ONA.booksrecommender.utils.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Trasporto non bloccante basato su Selector, alternativo al ciclo ServerSocket di Server.
+ * Pochi thread di I/O servono tutti i socket: leggono i byte, li dividono in righe
+ * (stessa suddivisione di BufferedReader.readLine usata da Server.handleClient) e
+ * passano le righe complete al RequestDispatcher, che le esegue sul suo pool di worker.
+ * Le risposte di una stessa connessione restano nell'ordine delle richieste.
+ */
+public class NioServer implements Runnable {
+    private static final String SEPARATOR = ";";
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final int MAX_LINE_LENGTH = 1 << 20; // oltre 1 MB senza "\n" il client viene disconnesso
+    private static final Set<String> SUPPORTED_FEATURES = Set.of(Handshake.PIPELINE, Handshake.DEFLATE);
+
+    private final ServerConfig config;
+    private final Logger logger;
+    private final ServerMetrics metrics;
+    private final RequestDispatcher dispatcher;
+    private final Semaphore connectionSlots;
+    private final ConnectionsCleaner connectionsCleaner; // null se il timeout di inattività è disattivato
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    private final IoLoop[] loops;
+    private volatile boolean running = true;
+    private volatile boolean accepting = true;
+    private Selector acceptSelector;
+    private ServerSocketChannel serverChannel;
+
+    public NioServer(ServerConfig config, Logger logger, ServerMetrics metrics, RequestDispatcher dispatcher, Semaphore connectionSlots,
+                     ConnectionsCleaner connectionsCleaner) {
+        this.config = config;
+        this.logger = logger;
+        this.metrics = metrics;
+        this.dispatcher = dispatcher;
+        this.connectionSlots = connectionSlots;
+        this.connectionsCleaner = connectionsCleaner;
+        this.loops = new IoLoop[Math.max(1, config.getIoThreads())];
+    }
+
+    @Override
+    public void run() {
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                loops[i] = new IoLoop();
+            }
+            ThreadManager ioThreads = new ThreadManager("NioIoThread", true);
+            for (IoLoop loop : loops) {
+                ioThreads.newThread(loop).start();
+            }
+
+            acceptSelector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(config.getPort()));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+            logger.log("Server (nio) listening on port " + config.getPort() + " (" + config + ")");
+
+            int next = 0;
+            while (accepting) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    if (!connectionSlots.tryAcquire()) {
+                        reject(channel);
+                        continue;
+                    }
+                    metrics.connectionAccepted();
+                    logger.log("Connection accepted by " + channel.socket().getInetAddress());
+                    loops[next].assign(channel);
+                    next = (next + 1) % loops.length;
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // chiusura richiesta da stopAccepting() o stop()
+        } catch (IOException e) {
+            if (accepting) {
+                logger.log("Error " + e.getMessage());
+            }
+        } finally {
+            if (accepting) { // errore dell'acceptor: ferma anche i thread di I/O
+                stop();
+            }
+        }
+    }
+
+    /**
+     * Chiude il socket di ascolto lasciando attive le connessioni esistenti, che
+     * continuano a essere servite fino a stop(). run() ritorna subito dopo.
+     */
+    public void stopAccepting() {
+        accepting = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+            if (acceptSelector != null) acceptSelector.close();
+        } catch (IOException e) {
+            logger.log("Error " + e.getMessage());
+        }
+    }
+
+    public void stop() {
+        stopAccepting();
+        running = false;
+        logger.log("Server stopped");
+        for (IoLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+    }
+
+    private void reject(SocketChannel channel) {
+        metrics.connectionRejected();
+        logger.log("Connection rejected (limit " + config.getMaxConnections() + " reached)");
+        try (channel) {
+            channel.write(ByteBuffer.wrap(("ERROR" + SEPARATOR + "server_full\n").getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            logger.log("Error " + e.getMessage());
+        }
+    }
+
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> pendingCloses = new ConcurrentLinkedQueue<>();
+
+        IoLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void assign(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        void requestWrite(Connection connection) {
+            pendingWrites.add(connection);
+            selector.wakeup();
+        }
+
+        // chiusura chiesta da un altro thread (ConnectionsCleaner): avviene sul thread di I/O,
+        // così solo lui tocca outbound e restituisce i buffer al pool
+        void requestClose(Connection connection) {
+            pendingCloses.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerNewChannels();
+                    flushPendingWrites();
+                    closePending();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            connection.close();
+                            continue;
+                        }
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.flush();
+                    }
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                logger.log("Error " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    logger.log("Error " + e.getMessage());
+                }
+            }
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                Connection connection = new Connection(this, channel);
+                try {
+                    channel.configureBlocking(false);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    if (connectionsCleaner != null) {
+                        connection.idleEntry = connectionsCleaner.register(connection::requestClose, String.valueOf(channel.getRemoteAddress()));
+                    }
+                } catch (IOException e) {
+                    logger.log("Error " + e.getMessage());
+                    connection.close();
+                }
+            }
+        }
+
+        private void flushPendingWrites() {
+            Connection connection;
+            while ((connection = pendingWrites.poll()) != null) {
+                connection.flush();
+            }
+        }
+
+        private void closePending() {
+            Connection connection;
+            while ((connection = pendingCloses.poll()) != null) {
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Stato di una singola connessione: riga parziale in lettura, risposte in uscita
+     * e richieste in attesa. Senza pipeline una sola richiesta alla volta viene eseguita,
+     * per mantenere l'ordine; con pipeline fino a maxInFlight.
+     */
+    private final class Connection {
+        private final IoLoop loop;
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private ConnectionsCleaner.Entry idleEntry;
+
+        private byte[] line = new byte[256];
+        private int lineLength;
+
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final Deque<String> pendingRequests = new ArrayDeque<>();
+        private int inFlight;
+        private boolean firstLine = true;
+        private boolean pipelined;
+        private ResponseCompressor compressor;
+        private final ClientContext client;
+
+        Connection(IoLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+            this.client = new ClientContext(channel.socket().getInetAddress().getHostAddress());
+        }
+
+        void read() {
+            ByteBuffer buffer = bufferPool.acquire();
+            try {
+                int n = channel.read(buffer);
+                if (n < 0) {
+                    close();
+                    return;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        int end = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+                        onLine(new String(line, 0, end, StandardCharsets.UTF_8));
+                        lineLength = 0;
+                    } else {
+                        if (lineLength == line.length) {
+                            if (line.length >= MAX_LINE_LENGTH) {
+                                logger.log("Line too long, closing connection");
+                                close();
+                                return;
+                            }
+                            line = Arrays.copyOf(line, line.length * 2);
+                        }
+                        line[lineLength++] = b;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // un errore inatteso su questa connessione la chiude senza fermare l'IoLoop e le altre connessioni
+                logger.log("Error " + e.getMessage());
+                close();
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+
+        private void onLine(String message) {
+            if (idleEntry != null) idleEntry.touch();
+            if (firstLine) {
+                firstLine = false;
+                if (Handshake.isHandshake(message)) {
+                    Handshake handshake = Handshake.parse(message, SUPPORTED_FEATURES);
+                    pipelined = handshake.has(Handshake.PIPELINE);
+                    if (handshake.has(Handshake.DEFLATE)) {
+                        compressor = config.newCompressor(metrics);
+                    }
+                    enqueue(handshake.reply());
+                    return;
+                }
+            }
+            synchronized (this) {
+                if (inFlight >= (pipelined ? Math.max(1, config.getMaxInFlight()) : 1)) {
+                    pendingRequests.add(message);
+                    return;
+                }
+                inFlight++;
+            }
+            submit(message);
+        }
+
+        private void submit(String message) {
+            String id = null;
+            String request = message;
+            if (pipelined) { // "id;richiesta" -> la risposta viene etichettata con lo stesso id
+                int sep = message.indexOf(SEPARATOR);
+                id = sep >= 0 ? message.substring(0, sep) : message;
+                request = sep >= 0 ? message.substring(sep + 1) : "";
+            }
+            String correlationId = id;
+            dispatcher.submit(request, client, response -> {
+                // la compressione avviene sul worker, non sul thread di I/O
+                String encoded = compressor != null ? compressor.compress(response) : response;
+                enqueue(correlationId == null ? encoded : correlationId + SEPARATOR + encoded);
+
+                String next;
+                synchronized (this) {
+                    next = pendingRequests.poll();
+                    if (next == null) {
+                        inFlight--;
+                    }
+                }
+                if (next != null) {
+                    submit(next);
+                }
+            });
+        }
+
+        private synchronized void enqueue(String response) {
+            if (closed.get()) return;
+            byte[] bytes = (response + "\n").getBytes(StandardCharsets.UTF_8);
+            for (int offset = 0; offset < bytes.length; offset += bufferPool.getBufferSize()) {
+                ByteBuffer buffer = bufferPool.acquire();
+                buffer.put(bytes, offset, Math.min(buffer.remaining(), bytes.length - offset));
+                buffer.flip();
+                outbound.add(buffer);
+            }
+            loop.requestWrite(this);
+        }
+
+        // eseguito solo dal thread di I/O proprietario della connessione
+        void flush() {
+            if (closed.get()) return;
+            try {
+                ByteBuffer buffer;
+                while ((buffer = outbound.peek()) != null) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE); // socket pieno: riprova quando è scrivibile
+                        return;
+                    }
+                    bufferPool.release(outbound.poll()); // quello appena scritto: solo questo thread rimuove da outbound
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                logger.log("Error " + e.getMessage());
+                close();
+            } catch (CancelledKeyException e) {
+                close();
+            }
+        }
+
+        // da un thread diverso da quello di I/O
+        void requestClose() {
+            if (!closed.get()) loop.requestClose(this);
+        }
+
+        // eseguito solo dal thread di I/O proprietario della connessione (vedi requestClose)
+        void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            if (idleEntry != null) idleEntry.cancel();
+            if (compressor != null) compressor.close();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log("Error " + e.getMessage());
+            }
+            synchronized (this) { // enqueue non aggiunge più buffer dopo aver visto closed
+                ByteBuffer buffer;
+                while ((buffer = outbound.poll()) != null) {
+                    bufferPool.release(buffer);
+                }
+            }
+            metrics.connectionClosed();
+            connectionSlots.release();
+        }
+    }
+}
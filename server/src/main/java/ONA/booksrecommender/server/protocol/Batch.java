@@ -0,0 +1,49 @@
+package ONA.booksrecommender.server.protocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Formato del comando "batch": più richieste in un solo messaggio, eseguite da ServerFacade.
+ * Ogni sotto-richiesta e ogni sotto-risposta è codificata in Base64, così i ";" che contiene
+ * non si confondono con i separatori:
+ * <pre>
+ * batch;Base64(richiesta1);Base64(richiesta2);...
+ * BATCH;Base64(risposta1);Base64(risposta2);...
+ * </pre>
+ * Le risposte sono nello stesso ordine delle richieste e usano sempre il formato testuale.
+ */
+public final class Batch {
+    public static final String COMMAND = "batch";
+    public static final String REPLY = "BATCH";
+    public static final int MAX_REQUESTS = 256;
+    private static final String SEPARATOR = ";";
+
+    private Batch() {
+    }
+
+    public static boolean isBatch(String[] parts) {
+        return parts.length > 0 && parts[0].equals(COMMAND);
+    }
+
+    /**
+     * Sotto-richieste contenute in "batch;..."; IllegalArgumentException se un campo non è Base64.
+     */
+    public static List<String> decode(String[] parts) {
+        List<String> requests = new ArrayList<>(parts.length - 1);
+        for (int i = 1; i < parts.length; i++) {
+            requests.add(new String(Base64.getDecoder().decode(parts[i]), StandardCharsets.UTF_8));
+        }
+        return requests;
+    }
+
+    public static String encode(List<String> responses) {
+        StringBuilder sb = new StringBuilder(REPLY);
+        for (String response : responses) {
+            sb.append(SEPARATOR).append(Base64.getEncoder().encodeToString(response.getBytes(StandardCharsets.UTF_8)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,133 @@
+package ONA.booksrecommender.server.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Protocollo binario versione 1 ("bin1"), attivato con l'handshake "hello;bin1".
+ * <pre>
+ * frame   = varint(lunghezza payload) payload
+ * payload = record*                     (richiesta: un solo record con i campi del comando)
+ * record  = campo* END_RECORD
+ * campo   = STRING varint(lunghezza) byte UTF-8 | INT varint zigzag
+ * </pre>
+ * Rispetto al testo non servono Base64 né separatori, quindi un titolo con ";" non rompe più nulla.
+ */
+public final class BinaryCodec {
+    public static final int STRING = 0x01;
+    public static final int INT = 0x02;
+    public static final int END_RECORD = 0x03;
+
+    public static final int MAX_FRAME_LENGTH = 16 << 20;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * Legge un frame di richiesta e restituisce i suoi campi, o null se il client ha chiuso la connessione.
+     */
+    public static String[] readRequest(InputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int length = readVarint(in, first);
+        if (length < 0 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) {
+            throw new EOFException("Truncated frame");
+        }
+
+        List<String> fields = new ArrayList<>();
+        int[] pos = {0};
+        while (pos[0] < payload.length) {
+            int type = payload[pos[0]++] & 0xFF;
+            switch (type) {
+                case STRING: {
+                    int len = readVarint(payload, pos);
+                    if (len < 0 || len > payload.length - pos[0]) {
+                        throw new IOException("Invalid string length: " + len);
+                    }
+                    fields.add(new String(payload, pos[0], len, StandardCharsets.UTF_8));
+                    pos[0] += len;
+                    break;
+                }
+                case INT:
+                    fields.add(Integer.toString(zigzagDecode(readVarint(payload, pos))));
+                    break;
+                case END_RECORD:
+                    break;
+                default:
+                    throw new IOException("Unknown field type: " + type);
+            }
+        }
+        return fields.toArray(new String[0]);
+    }
+
+    public static void writeFrame(OutputStream out, byte[] payload, int length) throws IOException {
+        writeVarint(out, length);
+        out.write(payload, 0, length);
+    }
+
+    public static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.write(STRING);
+        writeVarint(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    public static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(INT);
+        writeVarint(out, (value << 1) ^ (value >> 31)); // zigzag: i negativi piccoli restano corti
+    }
+
+    private static int zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int readVarint(InputStream in, int first) throws IOException {
+        int value = first & 0x7F;
+        int b = first;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift > 28) throw new IOException("Varint too long");
+            b = in.read();
+            if (b < 0) throw new EOFException("Truncated varint");
+            value |= (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private static int readVarint(byte[] data, int[] pos) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28 || pos[0] >= data.length) throw new IOException("Invalid varint");
+            int b = data[pos[0]++] & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package ONA.booksrecommender.server.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Scrive la risposta nel formato di BinaryCodec: campi tipizzati, testo UTF-8 senza Base64.
+ * Una risposta semplice ("LOGIN;0") diventa un record di stringhe ("LOGIN", "0"): per questo
+ * ServerFacade usa le risposte semplici solo per esiti e codici, mai per dati degli utenti,
+ * che possono contenere ";" e vengono scritti come record.
+ */
+public class BinaryResponseWriter implements ResponseWriter {
+
+    // espone il buffer interno per scriverlo sul socket senza copiarlo
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(512);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+
+    private final Buffer payload = new Buffer();
+
+    @Override
+    public void reply(String response) {
+        payload.reset();
+        for (String part : response.split(";", -1)) {
+            BinaryCodec.writeString(payload, part);
+        }
+        payload.write(BinaryCodec.END_RECORD);
+    }
+
+    @Override
+    public void beginList() {
+    }
+
+    @Override
+    public void endList() {
+    }
+
+    @Override
+    public void beginRecord() {
+    }
+
+    @Override
+    public void field(String value) {
+        BinaryCodec.writeString(payload, value);
+    }
+
+    @Override
+    public void field(int value) {
+        BinaryCodec.writeInt(payload, value);
+    }
+
+    @Override
+    public void textField(String value) {
+        BinaryCodec.writeString(payload, value);
+    }
+
+    @Override
+    public void endRecord() {
+        payload.write(BinaryCodec.END_RECORD);
+    }
+
+    /**
+     * Scrive il frame della risposta. Con la pipeline aggiunge in testa un record con il
+     * correlation ID; con la compressione (compressor non null) il payload inizia con il flag
+     * FLAG_PLAIN o FLAG_DEFLATE di ResponseCompressor.
+     */
+    public void writeFrame(OutputStream out, String correlationId, ResponseCompressor compressor) throws IOException {
+        Buffer body = payload;
+        if (correlationId != null) {
+            body = new Buffer();
+            BinaryCodec.writeString(body, correlationId);
+            body.write(BinaryCodec.END_RECORD);
+            body.write(payload.array(), 0, payload.size());
+        }
+        if (compressor == null) {
+            BinaryCodec.writeFrame(out, body.array(), body.size());
+            return;
+        }
+        byte[] compressed = compressor.compress(body.array(), 0, body.size());
+        if (compressed == null) {
+            BinaryCodec.writeVarint(out, body.size() + 1);
+            out.write(ResponseCompressor.FLAG_PLAIN);
+            out.write(body.array(), 0, body.size());
+        } else {
+            BinaryCodec.writeVarint(out, compressed.length + 1);
+            out.write(ResponseCompressor.FLAG_DEFLATE);
+            out.write(compressed);
+        }
+    }
+}
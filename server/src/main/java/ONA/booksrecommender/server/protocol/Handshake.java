@@ -0,0 +1,102 @@
+package ONA.booksrecommender.server.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Negoziazione delle opzioni di connessione.
+ * Il client può inviare come prima riga "hello;opzione1,opzione2,..."; il server risponde
+ * "HELLO;opzioni_accettate" con le sole opzioni che supporta. Senza handshake la
+ * connessione usa il protocollo testuale classico, una richiesta e una risposta alla volta.
+ */
+public class Handshake {
+    public static final String COMMAND = "hello";
+    private static final String SEPARATOR = ";";
+
+    /**
+     * Richieste con correlation ID ("id;comando;..."), eseguite in parallelo;
+     * le risposte ("id;risposta") arrivano nell'ordine in cui vengono completate.
+     */
+    public static final String PIPELINE = "pipeline";
+
+    /**
+     * Protocollo binario versione 1 (vedi BinaryCodec). Dopo la riga "HELLO;..." entrambe
+     * le parti usano solo frame binari; con "pipeline" il primo campo di ogni richiesta è
+     * il correlation ID e ogni risposta inizia con un record che lo contiene.
+     */
+    public static final String BINARY_V1 = "bin1";
+
+    /**
+     * Compressione deflate delle risposte sopra soglia (vedi ResponseCompressor).
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Elenchi inviati un record per riga mentre vengono letti dal database (vedi StreamingResponseWriter).
+     * Solo protocollo testuale del trasporto bloccante.
+     */
+    public static final String STREAM = "stream";
+
+    private final Set<String> accepted;
+
+    private Handshake(Set<String> accepted) {
+        this.accepted = accepted;
+    }
+
+    public static boolean isHandshake(String line) {
+        return line.equals(COMMAND) || line.startsWith(COMMAND + SEPARATOR);
+    }
+
+    /**
+     * Interpreta la riga di handshake tenendo solo le opzioni presenti in supported.
+     */
+    public static Handshake parse(String line, Set<String> supported) {
+        Set<String> accepted = new LinkedHashSet<>();
+        int start = line.indexOf(SEPARATOR);
+        if (start >= 0) {
+            for (String option : line.substring(start + 1).split(",")) {
+                String feature = option.trim().toLowerCase();
+                if (supported.contains(feature)) {
+                    accepted.add(feature);
+                }
+            }
+        }
+        return new Handshake(accepted);
+    }
+
+    /**
+     * Handshake implicito delle connessioni che non lo inviano.
+     */
+    public static Handshake none() {
+        return new Handshake(Set.of());
+    }
+
+    /**
+     * Legge una riga byte per byte, senza consumare nulla oltre il "\n": dopo l'handshake
+     * lo stesso stream può passare al protocollo binario. Restituisce null a fine stream.
+     */
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.write(b);
+        }
+        if (b < 0 && line.size() == 0) {
+            return null;
+        }
+        String text = line.toString(StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    public boolean has(String feature) {
+        return accepted.contains(feature);
+    }
+
+    public String reply() {
+        return "HELLO" + SEPARATOR + String.join(",", accepted);
+    }
+}
@@ -0,0 +1,107 @@
+package ONA.booksrecommender.server.protocol;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.List;
+
+/**
+ * Risposta in JSON per il gateway HTTP: ogni record diventa un oggetto con i nomi dei campi
+ * nell'ordine in cui ServerFacade li scrive, un elenco diventa un array. Il testo libero
+ * resta in chiaro (niente Base64) e i campi a più valori diventano array.
+ * Le risposte semplici ("NOT_FOUND", "ERROR;...") non vengono convertite: restano
+ * disponibili con getReply() e le interpreta il gateway.
+ */
+public class JsonResponseWriter implements ResponseWriter {
+    private final String[] names;
+    private String reply;
+    private JsonArray list;
+    private JsonObject record;
+    private JsonElement result;
+    private int index;
+
+    /**
+     * @param names nomi dei campi dei record, nell'ordine di scrittura ("nome[]" per i campi a più valori)
+     */
+    public JsonResponseWriter(String... names) {
+        this.names = names;
+    }
+
+    @Override
+    public void reply(String response) {
+        reply = response;
+        list = null;
+        record = null;
+        result = null;
+    }
+
+    @Override
+    public void beginList() {
+        list = new JsonArray();
+    }
+
+    @Override
+    public void endList() {
+        result = list;
+        list = null;
+    }
+
+    @Override
+    public void beginRecord() {
+        record = new JsonObject();
+        index = 0;
+    }
+
+    @Override
+    public void field(String value) {
+        record.addProperty(nextName(), value);
+    }
+
+    @Override
+    public void field(int value) {
+        record.addProperty(nextName(), value);
+    }
+
+    @Override
+    public void field(List<String> values, String delimiter) {
+        JsonArray array = new JsonArray(values.size());
+        values.forEach(array::add);
+        String name = nextName();
+        record.add(name.endsWith("[]") ? name.substring(0, name.length() - 2) : name, array);
+    }
+
+    @Override
+    public void textField(String value) {
+        record.addProperty(nextName(), value);
+    }
+
+    @Override
+    public void endRecord() {
+        if (list != null) {
+            list.add(record);
+        } else {
+            result = record;
+        }
+        record = null;
+    }
+
+    private String nextName() {
+        int i = index++;
+        return i < names.length ? names[i] : "field" + i;
+    }
+
+    /**
+     * Risposta semplice scritta da ServerFacade, oppure null se la risposta è fatta di record.
+     */
+    public String getReply() {
+        return reply;
+    }
+
+    /**
+     * Record o elenco scritto da ServerFacade (null se la risposta è semplice).
+     */
+    public JsonElement getResult() {
+        return reply == null ? result : null;
+    }
+}
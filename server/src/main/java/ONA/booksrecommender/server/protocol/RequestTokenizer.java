@@ -0,0 +1,60 @@
+package ONA.booksrecommender.server.protocol;
+
+/**
+ * Divide una riga di richiesta nei suoi campi separati da ";" scorrendola con un cursore,
+ * senza regex né liste intermedie: una passata conta i campi, la seconda crea solo le
+ * sottostringhe e l'array finale. Il risultato è identico a {@code line.split(";")},
+ * compresa la rimozione dei campi vuoti in coda.
+ */
+public final class RequestTokenizer {
+    private static final char SEPARATOR = ';';
+    private static final String[] EMPTY = new String[0];
+
+    private final String line;
+    private int cursor;
+
+    public RequestTokenizer(String line) {
+        this.line = line;
+    }
+
+    public boolean hasNext() {
+        return cursor <= line.length();
+    }
+
+    /**
+     * Campo successivo (anche vuoto); dopo l'ultimo hasNext() diventa false.
+     */
+    public String next() {
+        int end = line.indexOf(SEPARATOR, cursor);
+        if (end < 0) {
+            end = line.length();
+        }
+        String field = line.substring(cursor, end);
+        cursor = end + 1;
+        return field;
+    }
+
+    public static String[] split(String line) {
+        if (line.indexOf(SEPARATOR) < 0) {
+            return new String[] { line };
+        }
+        // i campi vuoti in coda non vengono restituiti, come in String.split
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == SEPARATOR) {
+            end--;
+        }
+        if (end == 0) {
+            return EMPTY;
+        }
+        int count = 1;
+        for (int i = line.indexOf(SEPARATOR); i >= 0 && i < end; i = line.indexOf(SEPARATOR, i + 1)) {
+            count++;
+        }
+        String[] parts = new String[count];
+        RequestTokenizer tokenizer = new RequestTokenizer(line);
+        for (int i = 0; i < count; i++) {
+            parts[i] = tokenizer.next();
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,90 @@
+package ONA.booksrecommender.server.protocol;
+
+import ONA.booksrecommender.server.ServerMetrics;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.Deflater;
+
+/**
+ * Compressione deflate (formato zlib) delle risposte di una connessione, attivata con
+ * l'handshake "hello;deflate". Le risposte sotto la soglia (es. "LOGIN;0") e quelle che
+ * non si riducono vengono inviate così come sono.
+ * <ul>
+ * <li>protocollo testuale: il carattere di controllo SOH (U+0001) + Base64(deflate(risposta)) al posto
+ * della risposta; una risposta in chiaro che inizia con SOH viene sempre compressa, così il
+ * client non può scambiarla per compressa</li>
+ * <li>protocollo binario: il payload di ogni frame inizia con un byte, 0 = in chiaro, 1 = compresso</li>
+ * </ul>
+ * Il Deflater è riutilizzato per tutta la connessione; con la pipeline più worker possono
+ * comprimere insieme, quindi i metodi sono sincronizzati.
+ */
+public class ResponseCompressor {
+    public static final String TEXT_PREFIX = "\u0001";
+    public static final int FLAG_PLAIN = 0;
+    public static final int FLAG_DEFLATE = 1;
+
+    private final Deflater deflater;
+    private final int threshold;
+    private final ServerMetrics metrics;
+    private final byte[] chunk = new byte[8192];
+    private boolean closed;
+
+    public ResponseCompressor(int level, int threshold, ServerMetrics metrics) {
+        this.deflater = new Deflater(level);
+        this.threshold = threshold;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Restituisce i byte compressi, oppure null se il messaggio è sotto soglia o non si riduce.
+     */
+    public synchronized byte[] compress(byte[] data, int offset, int length) {
+        if (length < threshold) {
+            return null;
+        }
+        byte[] compressed = deflate(data, offset, length);
+        return compressed != null && compressed.length < length ? compressed : null;
+    }
+
+    // null solo se il compressore è già chiuso
+    private synchronized byte[] deflate(byte[] data, int offset, int length) {
+        if (closed) {
+            return null;
+        }
+        long start = System.nanoTime();
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 3 + 64);
+        while (!deflater.finished()) {
+            int n = deflater.deflate(chunk);
+            compressed.write(chunk, 0, n);
+        }
+        metrics.responseCompressed(length, compressed.size(), System.nanoTime() - start);
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Versione per il protocollo testuale: la risposta compressa resta su una sola riga.
+     */
+    public String compress(String response) {
+        boolean ambiguous = response.startsWith(TEXT_PREFIX); // in chiaro verrebbe letta come compressa
+        if (!ambiguous && response.length() < threshold / 3) { // sicuramente sotto soglia anche in UTF-8
+            return response;
+        }
+        byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = ambiguous ? deflate(bytes, 0, bytes.length) : compress(bytes, 0, bytes.length);
+        if (compressed == null) {
+            return response;
+        }
+        String encoded = TEXT_PREFIX + Base64.getEncoder().encodeToString(compressed);
+        return ambiguous || encoded.length() < response.length() ? encoded : response;
+    }
+
+    public synchronized void close() {
+        closed = true; // risposte ancora in volo dopo la chiusura partono in chiaro
+        deflater.end();
+    }
+}
@@ -0,0 +1,43 @@
+package ONA.booksrecommender.server.protocol;
+
+import java.util.List;
+
+/**
+ * Destinazione di una risposta di ServerFacade, indipendente dal formato sul filo.
+ * Una risposta è o una risposta semplice (reply) o una sequenza di record; i record
+ * scritti tra beginList() e endList() formano un elenco (nel protocollo testuale
+ * ognuno è chiuso da "|"), un record isolato è una risposta a record singolo.
+ */
+public interface ResponseWriter {
+
+    /**
+     * Risposta semplice nel formato testuale storico, es. "LOGIN;0" o "NOT_FOUND".
+     * Sostituisce quanto eventualmente già scritto.
+     */
+    void reply(String response);
+
+    void beginList();
+
+    void endList();
+
+    void beginRecord();
+
+    void field(String value);
+
+    void field(int value);
+
+    /**
+     * Campo formato da più valori uniti da delimiter (es. gli autori separati da ", ").
+     */
+    default void field(List<String> values, String delimiter) {
+        field(String.join(delimiter, values));
+    }
+
+    /**
+     * Campo di testo libero (descrizioni, note): può contenere separatori, quindi nel
+     * protocollo testuale viene codificato in Base64, in quello binario resta UTF-8.
+     */
+    void textField(String value);
+
+    void endRecord();
+}
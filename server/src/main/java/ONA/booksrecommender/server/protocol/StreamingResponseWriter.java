@@ -0,0 +1,104 @@
+package ONA.booksrecommender.server.protocol;
+
+import java.io.PrintWriter;
+
+/**
+ * Protocollo testuale in streaming (opzione "stream" dell'handshake): i record di un
+ * elenco vengono scritti sul socket uno per riga man mano che arrivano dal ResultSet,
+ * tra una riga "STREAM" e una riga "END", invece di accumulare tutta la risposta.
+ * La memoria per richiesta resta quella di un solo record.
+ * <ul>
+ * <li>risposte semplici e record singoli: una riga, come nel protocollo classico</li>
+ * <li>elenchi: "STREAM", un record per riga (senza "|"), "END"</li>
+ * <li>errore a elenco già iniziato: la riga finale è "END;ERROR;messaggio"</li>
+ * </ul>
+ * Un elenco vuoto non apre lo stream: la risposta resta la riga vuota (o NOT_FOUND, ecc.).
+ */
+public class StreamingResponseWriter extends TextResponseWriter {
+    public static final String BEGIN = "STREAM";
+    public static final String END = "END";
+    private static final String SEPARATOR = ";";
+
+    private final PrintWriter out;
+    private final String prefix;
+    private final ResponseCompressor compressor;
+    private boolean streaming;
+    private boolean finished;
+
+    /**
+     * @param prefix     "id;" da anteporre a ogni riga in modalità pipeline, altrimenti null
+     * @param compressor usato solo per le risposte su una riga (può essere null)
+     */
+    public StreamingResponseWriter(PrintWriter out, String prefix, ResponseCompressor compressor) {
+        this.out = out;
+        this.prefix = prefix;
+        this.compressor = compressor;
+    }
+
+    @Override
+    public void reply(String response) {
+        if (streaming) { // errore dopo che alcuni record sono già partiti
+            finish(END + SEPARATOR + response);
+            return;
+        }
+        super.reply(response);
+    }
+
+    @Override
+    public void endRecord() {
+        if (!inList) {
+            return;
+        }
+        if (!streaming) {
+            streaming = true;
+            writeLine(BEGIN);
+        }
+        writeLine(sb.toString());
+        sb.setLength(0);
+    }
+
+    @Override
+    public void endList() {
+        super.endList();
+        if (streaming) {
+            finish(END);
+        }
+    }
+
+    /**
+     * Chiude la risposta: scrive la riga accumulata se non c'è stato streaming, poi fa flush.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        if (streaming) {
+            finish(END);
+            return;
+        }
+        String response = sb.toString();
+        finish(compressor != null ? compressor.compress(response) : response);
+    }
+
+    private void finish(String lastLine) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        writeLine(lastLine);
+        synchronized (out) {
+            out.flush();
+        }
+    }
+
+    // niente flush per riga: il BufferedOutputStream sotto al PrintWriter invia a blocchi
+    private void writeLine(String line) {
+        synchronized (out) {
+            if (prefix != null) {
+                out.print(prefix);
+            }
+            out.print(line);
+            out.print('\n');
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package ONA.booksrecommender.server.protocol;
+
+import java.util.List;
+
+/**
+ * Protocollo testuale storico: campi separati da ";", record di un elenco chiusi da "|".
+ * I campi vengono scritti direttamente nel buffer, senza stringhe intermedie; il buffer
+ * può essere riutilizzato tra una richiesta e l'altra con reset().
+ */
+public class TextResponseWriter implements ResponseWriter {
+    private static final char SEPARATOR = ';';
+    private static final char RECORD_SEPARATOR = '|';
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024; // oltre, reset() libera il buffer
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    protected final StringBuilder sb = new StringBuilder();
+    protected boolean inList;
+    private boolean firstField;
+
+    @Override
+    public void reply(String response) {
+        sb.setLength(0);
+        sb.append(response);
+    }
+
+    /**
+     * Svuota il writer per una nuova risposta, mantenendo la capacità del buffer se non è eccessiva.
+     */
+    public void reset() {
+        sb.setLength(0);
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            sb.trimToSize();
+        }
+        inList = false;
+        firstField = false;
+    }
+
+    @Override
+    public void beginList() {
+        inList = true;
+    }
+
+    @Override
+    public void endList() {
+        inList = false;
+    }
+
+    @Override
+    public void beginRecord() {
+        firstField = true;
+    }
+
+    @Override
+    public void field(String value) {
+        separate();
+        sb.append(value);
+    }
+
+    @Override
+    public void field(int value) {
+        separate();
+        sb.append(value);
+    }
+
+    @Override
+    public void field(List<String> values, String delimiter) {
+        separate();
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                sb.append(delimiter);
+            }
+            sb.append(values.get(i));
+        }
+    }
+
+    /**
+     * Aggiunge un record già codificato in questo formato (campi separati da ";", senza "|").
+     */
+    public void rawRecord(String record) {
+        beginRecord();
+        sb.append(record);
+        firstField = false;
+        endRecord();
+    }
+
+    @Override
+    public void textField(String value) {
+        separate();
+        if (value != null) {
+            appendBase64Utf8(value);
+        }
+    }
+
+    // Base64(UTF-8(value)) scritto direttamente nel buffer, senza creare byte[] né stringhe;
+    // stesso risultato di Base64.getEncoder().encodeToString(value.getBytes(UTF_8))
+    private void appendBase64Utf8(String value) {
+        int group = 0; // fino a 3 byte in attesa di essere codificati
+        int pending = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int c = value.charAt(i);
+            if (Character.isHighSurrogate((char) c) && i + 1 < value.length() && Character.isLowSurrogate(value.charAt(i + 1))) {
+                c = Character.toCodePoint((char) c, value.charAt(++i));
+            } else if (Character.isSurrogate((char) c)) {
+                c = '?'; // surrogato spaiato: String.getBytes lo sostituisce con "?"
+            }
+            int bytes = c < 0x80 ? 1 : c < 0x800 ? 2 : c < 0x10000 ? 3 : 4;
+            for (int b = bytes - 1; b >= 0; b--) {
+                int octet;
+                if (bytes == 1) {
+                    octet = c;
+                } else if (b == bytes - 1) {
+                    octet = (0xF00 >> bytes) & 0xFF | (c >> (6 * b)); // byte iniziale: 110xxxxx, 1110xxxx, 11110xxx
+                } else {
+                    octet = 0x80 | ((c >> (6 * b)) & 0x3F);
+                }
+                group = (group << 8) | (octet & 0xFF);
+                if (++pending == 3) {
+                    sb.append(BASE64[(group >> 18) & 0x3F]).append(BASE64[(group >> 12) & 0x3F])
+                      .append(BASE64[(group >> 6) & 0x3F]).append(BASE64[group & 0x3F]);
+                    group = 0;
+                    pending = 0;
+                }
+            }
+        }
+        if (pending == 1) {
+            sb.append(BASE64[(group >> 2) & 0x3F]).append(BASE64[(group << 4) & 0x3F]).append("==");
+        } else if (pending == 2) {
+            sb.append(BASE64[(group >> 10) & 0x3F]).append(BASE64[(group >> 4) & 0x3F]).append(BASE64[(group << 2) & 0x3F]).append('=');
+        }
+    }
+
+    @Override
+    public void endRecord() {
+        if (inList) {
+            sb.append(RECORD_SEPARATOR);
+        }
+    }
+
+    private void separate() {
+        if (!firstField) {
+            sb.append(SEPARATOR);
+        }
+        firstField = false;
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+}
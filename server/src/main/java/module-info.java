@@ -3,6 +3,8 @@ module booksrecommender.server {
     requires booksrecommender.common;
     requires java.xml.crypto;
     requires java.net.http;
+    requires jdk.management;
+    requires jdk.httpserver;
     requires spring.security.crypto;
     requires javafx.graphics;
     requires javafx.base;
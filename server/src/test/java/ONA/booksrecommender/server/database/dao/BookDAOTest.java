@@ -0,0 +1,200 @@
+package ONA.booksrecommender.server.database.dao;
+
+import ONA.booksrecommender.objects.Book;
+import ONA.booksrecommender.server.database.ConnectionPool;
+import ONA.booksrecommender.utils.Logger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Le pagine di libri (titolo, autore, categoria) devono costare una sola query qualunque sia
+ * la loro dimensione. Il database è sostituito da una Connection finta che conta gli statement
+ * preparati ed eseguiti e restituisce pageSize righe per ogni query.
+ * Controlla anche che la chiave delle pagine tratti un anno NULL come 0 in ogni sua parte.
+ */
+class BookDAOTest {
+    private final AtomicInteger prepared = new AtomicInteger();
+    private final AtomicInteger executed = new AtomicInteger();
+    private final List<String> sql = new ArrayList<>();
+    private final List<Integer> intParams = new ArrayList<>();
+    private int rowsPerQuery;
+    private boolean nullYears;
+    private ConnectionPool pool;
+    private BookDAO bookDAO;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        // statement cache disattivata: ogni prepare arriva alla connessione e viene contato
+        pool = new ConnectionPool(this::fakeConnection, new Logger(), 1, 1, 1000, 0, 0);
+        bookDAO = new BookDAO(new Logger(), pool);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 1, 20, 100 })
+    void titlePageIsOneStatement(int pageSize) {
+        rowsPerQuery = pageSize;
+        List<Book> books = new ArrayList<>();
+
+        int read = bookDAO.forEachBook("harry", null, pageSize, books::add);
+
+        assertEquals(pageSize, read);
+        assertEquals(pageSize, books.size());
+        assertStatements(1);
+
+        bookDAO.forEachBook("harry", BookDAO.Keyset.after(books.get(books.size() - 1)), pageSize, book -> {});
+        assertStatements(2);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 1, 20, 100 })
+    void authorPageIsOneStatement(int pageSize) {
+        rowsPerQuery = pageSize;
+        List<Book> books = new ArrayList<>();
+
+        assertEquals(pageSize, bookDAO.forEachAuthorBook("rowling", null, pageSize, books::add));
+        assertStatements(1);
+
+        bookDAO.forEachAuthorBook("rowling", BookDAO.Keyset.after(books.get(0)), pageSize, book -> {});
+        assertStatements(2);
+
+        bookDAO.forEachAuthorBook("rowling", pageSize, pageSize, book -> {}); // versione con OFFSET
+        assertStatements(3);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 1, 20, 100 })
+    void categoryPageIsOneStatement(int pageSize) {
+        rowsPerQuery = pageSize;
+
+        assertEquals(pageSize, bookDAO.forEachBook("fantasy", pageSize, book -> {}));
+        assertStatements(1);
+
+        assertEquals(pageSize, bookDAO.forEachBook("none", pageSize, book -> {}));
+        assertStatements(2);
+    }
+
+    @Test
+    void nullYearCursorUsesTheSameKeyAsTheOrdering() {
+        rowsPerQuery = 3;
+        nullYears = true;
+        for (boolean byAuthor : new boolean[] { false, true }) {
+            List<Book> books = new ArrayList<>();
+            Consumer<Book> collect = books::add;
+            if (byAuthor) {
+                bookDAO.forEachAuthorBook("rowling", null, 3, collect);
+            } else {
+                bookDAO.forEachBook("harry", null, 3, collect);
+            }
+            Book last = books.get(books.size() - 1);
+            BookDAO.Keyset after = BookDAO.Keyset.after(last);
+            assertEquals(0, after.publicationYear());
+
+            intParams.clear();
+            if (byAuthor) {
+                bookDAO.forEachAuthorBook("rowling", after, 3, book -> {});
+            } else {
+                bookDAO.forEachBook("harry", after, 3, book -> {});
+            }
+            // il token (0, id) viene confrontato con la stessa espressione usata per ordinare
+            assertEquals(List.of(0, last.getId(), 3), intParams);
+            String query = sql.get(sql.size() - 1);
+            assertTrue(query.contains("(COALESCE(bk.publish_year, 0), bk.book_id) " + (byAuthor ? "<" : ">") + " (?, ?)"), query);
+            assertTrue(query.contains("ORDER BY COALESCE(bk.publish_year, 0)"), query);
+            assertTrue(query.contains("ORDER BY COALESCE(b.publish_year, 0)"), query);
+            // nessun ordinamento o confronto sull'anno senza COALESCE
+            assertFalse(query.replace("COALESCE(bk.publish_year, 0)", "").replace("COALESCE(b.publish_year, 0)", "")
+                    .contains("publish_year "), query);
+        }
+    }
+
+    private void assertStatements(int expected) {
+        assertEquals(expected, prepared.get(), "statement preparati");
+        assertEquals(expected, executed.get(), "statement eseguiti");
+    }
+
+    private Connection fakeConnection() {
+        return proxy(Connection.class, (method, args) -> switch (method) {
+            case "prepareStatement" -> {
+                prepared.incrementAndGet();
+                sql.add((String) args[0]);
+                yield fakeStatement();
+            }
+            case "isValid", "getAutoCommit" -> true;
+            default -> null;
+        });
+    }
+
+    private PreparedStatement fakeStatement() {
+        return proxy(PreparedStatement.class, (method, args) -> switch (method) {
+            case "executeQuery" -> {
+                executed.incrementAndGet();
+                yield fakeResultSet(rowsPerQuery, nullYears);
+            }
+            case "setInt" -> {
+                intParams.add((Integer) args[1]);
+                yield null;
+            }
+            case "execute", "executeUpdate" -> {
+                executed.incrementAndGet();
+                yield method.equals("execute") ? Boolean.FALSE : Integer.valueOf(0);
+            }
+            default -> null;
+        });
+    }
+
+    // righe con book_id e anno crescenti (o anno NULL, letto come 0), autori assenti
+    private static ResultSet fakeResultSet(int rows, boolean nullYears) {
+        AtomicInteger row = new AtomicInteger();
+        return proxy(ResultSet.class, (method, args) -> switch (method) {
+            case "next" -> row.incrementAndGet() <= rows;
+            case "getInt" -> nullYears && args[0].equals("publish_year") ? 0 : row.get();
+            case "getString" -> args[0] + "-" + row.get();
+            default -> null;
+        });
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args);
+    }
+
+    // i metodi non gestiti restituiscono il valore di default del tipo (false, 0, null)
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+            Object result = handler.invoke(method.getName(), args);
+            if (result == null && method.getReturnType().isPrimitive() && method.getReturnType() != void.class) {
+                Class<?> returnType = method.getReturnType();
+                if (returnType == boolean.class) return false;
+                if (returnType == long.class) return 0L;
+                if (returnType == double.class) return 0.0;
+                if (returnType == float.class) return 0f;
+                if (returnType == short.class) return (short) 0;
+                if (returnType == byte.class) return (byte) 0;
+                if (returnType == char.class) return (char) 0;
+                return 0;
+            }
+            return result;
+        }));
+    }
+}